@@ -0,0 +1,705 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.*;
+
+/** The store of file contents.  Every blob is named by the SHA-1 of its
+ *  contents and lives either loose, as its own file in Main.blobsArea, or
+ *  inside one of the packs in Main.packsArea.  Lookups try the packs first
+ *  and fall back to loose files, so repositories that have never been
+ *  repacked keep working unchanged.
+ *
+ *  A loose blob is stored in one of four forms:
+ *      ID           the contents as they are (written by older versions,
+ *                   and when Config.COMPRESSION is false);
+ *      ID.z         the contents, deflated (the default);
+ *      ID.delta     a delta against a base blob, usually the previous
+ *                   version of the same file;
+ *      ID.manifest  the list of the chunks of a large file.
+ *  A stored delta is
+ *      BASE_ID DEPTH DELTA
+ *  where BASE_ID is the base's binary SHA-1, DEPTH is the length of the
+ *  chain of deltas ending in this blob, and DELTA is as in Delta.  DEPTH
+ *  never exceeds MAX_DELTA_DEPTH, so reading a blob reads at most
+ *  MAX_DELTA_DEPTH + 1 objects.  A manifest is
+ *      "GLMF" COUNT (CHUNK_ID LENGTH)...
+ *  with COUNT and LENGTH varints.  Files larger than MAX_DELTA_SIZE are
+ *  cut into chunks by Chunker and each chunk is stored as a blob of its
+ *  own, so versions of a large file share the chunks an edit did not
+ *  touch.  The manifest is still named by the SHA-1 of the whole
+ *  contents, so commits refer to chunked files like any other.  Packs
+ *  hold the same four forms as entries of the corresponding PackFile
+ *  types.
+ *
+ *  Files are added with writeFile, which reads the file once, hashing and
+ *  (unless Config.COMPRESSION is false) deflating it into a temporary file
+ *  as it goes, and renames the result into place.  Blobs are read back with open or copyTo, which inflate as
+ *  they stream and read chunks one at a time, so neither path holds a
+ *  whole large file in memory. */
+class BlobStore {
+
+    /** The longest chain of deltas allowed. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /** Blobs smaller than this are always stored whole. */
+    private static final int MIN_DELTA_SIZE = 64;
+    /** Blobs larger than this are never stored as deltas. */
+    private static final int MAX_DELTA_SIZE = 8 << 20;
+    /** Suffixes of loose deflated and delta files. */
+    static final String DEFLATED_SUFFIX = ".z", DELTA_SUFFIX = ".delta",
+        MANIFEST_SUFFIX = ".manifest";
+    /** Magic number at the start of a manifest. */
+    private static final byte[] MANIFEST_MAGIC = {'G', 'L', 'M', 'F'};
+    /** Size of the buffers used when streaming. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The packs of this repository, loaded on first use. */
+    private static List<PackFile> packs;
+
+    /** Returns the packs in Main.packsArea. */
+    static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(Main.packsArea);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new PackFile(Utils.join(Main.packsArea, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the loaded packs if the packs in Main.packsArea are no
+     *  longer those loaded, as after a repack or gc by another process.
+     *  Main.run calls this at the start of each command. */
+    static synchronized void refreshPacks() {
+        if (packs == null) {
+            return;
+        }
+        List<String> names = Utils.plainFilenamesIn(Main.packsArea);
+        int count = 0;
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".idx")) {
+                    File idx = Utils.join(Main.packsArea, name);
+                    if (count >= packs.size()
+                        || !packs.get(count).getIdxFile().equals(idx)) {
+                        reloadPacks();
+                        return;
+                    }
+                    count += 1;
+                }
+            }
+        }
+        if (count != packs.size()) {
+            reloadPacks();
+        }
+    }
+
+    /** Forgets the loaded packs so that they are reread on next use. */
+    static synchronized void reloadPacks() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+        }
+        packs = null;
+    }
+
+    /** Returns the loose file that would hold blob ID as it is. */
+    static File looseFile(String id) {
+        return Utils.join(Main.blobsArea, id);
+    }
+
+    /** Returns the loose file that would hold blob ID deflated. */
+    static File deflatedFile(String id) {
+        return Utils.join(Main.blobsArea, id + DEFLATED_SUFFIX);
+    }
+
+    /** Returns the loose file that would hold blob ID as a delta. */
+    static File deltaFile(String id) {
+        return Utils.join(Main.blobsArea, id + DELTA_SUFFIX);
+    }
+
+    /** Returns the loose file that would hold the manifest of blob ID. */
+    static File manifestFile(String id) {
+        return Utils.join(Main.blobsArea, id + MANIFEST_SUFFIX);
+    }
+
+    /** Returns true iff blob ID is in the store. */
+    static boolean contains(String id) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return deflatedFile(id).isFile() || deltaFile(id).isFile()
+            || looseFile(id).isFile() || manifestFile(id).isFile();
+    }
+
+    /** A blob as it is stored: its TYPE (one of the PackFile types) and
+     *  the stored DATA. */
+    private static class Stored {
+        final byte type;
+        final byte[] data;
+
+        Stored(byte type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        /** Returns the id of the base of this delta. */
+        String base() {
+            return Utils.sha1Hex(data, 0);
+        }
+
+        /** Returns the delta chain length of this blob. */
+        int depth() {
+            return type == PackFile.TYPE_DELTA ? data[Utils.UID_BYTES] : 0;
+        }
+
+        /** Returns the delta of this blob against its base. */
+        byte[] delta() {
+            return Arrays.copyOfRange(data, Utils.UID_BYTES + 1,
+                    data.length);
+        }
+    }
+
+    /** Returns blob ID as stored, or null if it is absent. */
+    private static Stored load(String id) {
+        for (PackFile pack : packs()) {
+            int k = pack.find(id);
+            if (k >= 0) {
+                return new Stored(pack.typeAt(k), pack.dataAt(k));
+            }
+        }
+        File deflated = deflatedFile(id);
+        if (deflated.isFile()) {
+            return new Stored(PackFile.TYPE_DEFLATED,
+                    Utils.readContents(deflated));
+        }
+        File delta = deltaFile(id);
+        if (delta.isFile()) {
+            return new Stored(PackFile.TYPE_DELTA, Utils.readContents(delta));
+        }
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return new Stored(PackFile.TYPE_FULL, Utils.readContents(loose));
+        }
+        File manifest = manifestFile(id);
+        if (manifest.isFile()) {
+            return new Stored(PackFile.TYPE_MANIFEST,
+                    Utils.readContents(manifest));
+        }
+        return null;
+    }
+
+    /** Returns the ids of the chunks listed in MANIFEST, in order. */
+    static List<String> chunks(byte[] manifest) {
+        if (manifest.length < MANIFEST_MAGIC.length
+            || !Arrays.equals(manifest, 0, MANIFEST_MAGIC.length,
+                              MANIFEST_MAGIC, 0, MANIFEST_MAGIC.length)) {
+            throw new IllegalArgumentException("corrupt manifest");
+        }
+        int[] pos = {MANIFEST_MAGIC.length};
+        long count = Utils.readVarint(manifest, pos);
+        List<String> ids = new ArrayList<>();
+        for (long i = 0; i < count; i += 1) {
+            ids.add(Utils.sha1Hex(manifest, pos[0]));
+            pos[0] += Utils.UID_BYTES;
+            Utils.readVarint(manifest, pos);
+        }
+        return ids;
+    }
+
+    /** Returns the contents of blob ID, resolving its chain of deltas.
+     *  Throws IllegalArgumentException if there is no such blob. */
+    static byte[] read(String id) {
+        ArrayList<Stored> chain = new ArrayList<>();
+        String next = id;
+        while (true) {
+            Stored stored = load(next);
+            if (stored == null) {
+                throw new IllegalArgumentException("no such blob " + next);
+            }
+            if (stored.type == PackFile.TYPE_MANIFEST && chain.isEmpty()) {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                for (String chunk : chunks(stored.data)) {
+                    contents.writeBytes(read(chunk));
+                }
+                return contents.toByteArray();
+            } else if (stored.type == PackFile.TYPE_FULL
+                || stored.type == PackFile.TYPE_DEFLATED) {
+                byte[] contents = stored.type == PackFile.TYPE_FULL
+                    ? stored.data : inflate(stored.data);
+                for (int i = chain.size() - 1; i >= 0; i -= 1) {
+                    contents = Delta.apply(contents, chain.get(i).delta());
+                }
+                return contents;
+            } else if (stored.type != PackFile.TYPE_DELTA
+                       || chain.size() > MAX_DELTA_DEPTH) {
+                throw new IllegalArgumentException("corrupt blob " + id);
+            }
+            chain.add(stored);
+            next = stored.base();
+        }
+    }
+
+    /** Returns a stream over the contents of blob ID.  Whole blobs are
+     *  streamed from disk and inflated as they are read; deltas are
+     *  rebuilt in memory, which is bounded by MAX_DELTA_SIZE; chunked
+     *  blobs are read one chunk at a time. */
+    static InputStream open(String id) {
+        try {
+            for (PackFile pack : packs()) {
+                int k = pack.find(id);
+                if (k >= 0) {
+                    byte type = pack.typeAt(k);
+                    if (type == PackFile.TYPE_FULL) {
+                        return pack.streamAt(k);
+                    } else if (type == PackFile.TYPE_DEFLATED) {
+                        return new InflaterInputStream(pack.streamAt(k));
+                    } else if (type == PackFile.TYPE_MANIFEST) {
+                        return openChunks(chunks(pack.dataAt(k)));
+                    }
+                    return new ByteArrayInputStream(read(id));
+                }
+            }
+            File manifest = manifestFile(id);
+            if (manifest.isFile()) {
+                return openChunks(chunks(Utils.readContents(manifest)));
+            }
+            File deflated = deflatedFile(id);
+            if (deflated.isFile()) {
+                return new InflaterInputStream(new BufferedInputStream(
+                        Files.newInputStream(deflated.toPath()), BUFFER_SIZE));
+            }
+            File loose = looseFile(id);
+            if (loose.isFile()) {
+                return Files.newInputStream(loose.toPath());
+            }
+            return new ByteArrayInputStream(read(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the concatenated contents of the blobs
+     *  CHUNKS, each opened when the previous one is exhausted. */
+    private static InputStream openChunks(List<String> chunks) {
+        Iterator<String> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(next.next());
+            }
+        });
+    }
+
+    /** Writes the contents of blob ID to TARGET, creating or replacing
+     *  it, without holding the whole blob in memory.  TARGET is replaced
+     *  rather than written over, as it may be a link to a blob.  Blobs
+     *  stored as they are, loose or in a pack, are copied with
+     *  FileChannel.transferTo, which lets the operating system copy them
+     *  (with copy_file_range or sendfile) without passing through the
+     *  heap.  Blobs are stored that way only when Config.COMPRESSION is
+     *  false (and by older versions); deflated blobs, the default, are
+     *  inflated as they are copied.  If Config.HARDLINKS is set, TARGET is
+     *  instead made a hard link to a read-only copy of the blob in
+     *  Main.blobsArea. */
+    static void copyTo(String id, File target) {
+        if (Config.getBoolean(Config.HARDLINKS, false) && link(id, target)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(target.toPath());
+            for (PackFile pack : packs()) {
+                int k = pack.find(id);
+                if (k >= 0) {
+                    if (pack.typeAt(k) == PackFile.TYPE_FULL) {
+                        try (FileChannel out = create(target)) {
+                            pack.transferTo(k, out);
+                        }
+                        return;
+                    }
+                    break;
+                }
+            }
+            File loose = looseFile(id);
+            if (loose.isFile()) {
+                try (FileChannel in = FileChannel.open(loose.toPath(),
+                         StandardOpenOption.READ);
+                     FileChannel out = create(target)) {
+                    long size = in.size();
+                    for (long done = 0; done < size; ) {
+                        done += in.transferTo(done, size - done, out);
+                    }
+                }
+                return;
+            }
+            try (InputStream in = open(id)) {
+                Files.copy(in, target.toPath(), REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a channel on the new file TARGET. */
+    private static FileChannel create(File target) throws IOException {
+        return FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW);
+    }
+
+    /** Replaces TARGET with a hard link to the loose, uncompressed copy of
+     *  blob ID, first writing that copy if there is none, and makes it
+     *  read-only so that editing the working file cannot change the
+     *  store.  The copy replaces a loose deflated or delta form of the
+     *  blob, so that it is not stored twice; a packed or chunked blob
+     *  keeps its stored form too.  Returns false if the file system cannot
+     *  link them. */
+    private static boolean link(String id, File target) {
+        File raw = looseFile(id);
+        try {
+            if (!raw.isFile()) {
+                File tmp = tempFile();
+                try (InputStream in = open(id)) {
+                    Files.copy(in, tmp.toPath(), REPLACE_EXISTING);
+                }
+                install(tmp, raw);
+                Durability.sync(); /* The copy must be on disk before the
+                                    * form it replaces is deleted. */
+                deflatedFile(id).delete();
+                deltaFile(id).delete();
+            }
+            raw.setReadOnly();
+            Files.deleteIfExists(target.toPath());
+            Files.createLink(target.toPath(), raw.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Stores CONTENTS, whose SHA-1 is ID, unless it is already present. */
+    static void write(String id, byte[] contents) {
+        write(id, contents, null);
+    }
+
+    /** Stores CONTENTS, whose SHA-1 is ID, unless it is already present.
+     *  If BASE is the id of a stored blob, CONTENTS is stored as a delta
+     *  against it when that is much smaller. */
+    static void write(String id, byte[] contents, String base) {
+        if (contains(id) || writeDelta(id, contents, base)) {
+            return;
+        }
+        File tmp = tempFile();
+        try (OutputStream out = storing(tmp)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(tmp, storedFile(id));
+    }
+
+    /** Stores the contents of SOURCE and returns their SHA-1.  SOURCE is
+     *  read once: each buffer is hashed and deflated into a temporary
+     *  file, which is renamed into place once the id is known, or dropped
+     *  if the blob was already stored.  Files of at most MAX_DELTA_SIZE
+     *  are also kept in memory so that they can be stored as deltas
+     *  against BASE, as for write.  Larger files are stored in chunks. */
+    static String writeFile(File source, String base) {
+        if (source.length() > MAX_DELTA_SIZE) {
+            return writeChunked(source);
+        }
+        MessageDigest md = Utils.sha1Digest();
+        ByteArrayOutputStream small =
+            base != null && source.length() <= MAX_DELTA_SIZE
+            ? new ByteArrayOutputStream((int) source.length()) : null;
+        File tmp = tempFile();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(source.toPath());
+             OutputStream out = storing(tmp)) {
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+                if (small != null) {
+                    small.write(buf, 0, n);
+                }
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.sha1Hex(md.digest(), 0);
+        if (contains(id)
+            || (small != null && writeDelta(id, small.toByteArray(), base))) {
+            tmp.delete();
+        } else {
+            install(tmp, storedFile(id));
+        }
+        return id;
+    }
+
+    /** Stores the contents of SOURCE as a manifest of content-defined
+     *  chunks, each stored as its own blob unless it already is, and
+     *  returns their SHA-1.  At most one chunk is held in memory. */
+    private static String writeChunked(File source) {
+        MessageDigest md = Utils.sha1Digest();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long count = 0;
+        byte[] buf = new byte[Chunker.MAX_SIZE];
+        int n = 0;
+        boolean eof = false;
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            while (true) {
+                while (!eof && n < buf.length) {
+                    int r = in.read(buf, n, buf.length - n);
+                    if (r < 0) {
+                        eof = true;
+                    } else {
+                        n += r;
+                    }
+                }
+                if (n == 0) {
+                    break;
+                }
+                int cut = Chunker.cut(buf, n);
+                byte[] chunk = Arrays.copyOf(buf, cut);
+                String chunkId = Utils.sha1(chunk);
+                md.update(chunk);
+                write(chunkId, chunk);
+                entries.write(Utils.sha1Bytes(chunkId), 0, Utils.UID_BYTES);
+                Utils.writeVarint(entries, cut);
+                count += 1;
+                System.arraycopy(buf, cut, buf, 0, n - cut);
+                n -= cut;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = Utils.sha1Hex(md.digest(), 0);
+        if (!contains(id)) {
+            manifest.write(MANIFEST_MAGIC, 0, MANIFEST_MAGIC.length);
+            Utils.writeVarint(manifest, count);
+            manifest.writeBytes(entries.toByteArray());
+            File tmp = tempFile();
+            Utils.writeContents(tmp, manifest.toByteArray());
+            install(tmp, manifestFile(id));
+        }
+        return id;
+    }
+
+    /** Stores CONTENTS, whose SHA-1 is ID, as a delta against BASE if BASE
+     *  is stored, the delta chain would not grow past MAX_DELTA_DEPTH,
+     *  and the delta is less than half the size of CONTENTS.  Returns
+     *  true iff the delta was stored. */
+    private static boolean writeDelta(String id, byte[] contents,
+                                      String base) {
+        if (base == null || base.equals(id)
+            || contents.length < MIN_DELTA_SIZE
+            || contents.length > MAX_DELTA_SIZE) {
+            return false;
+        }
+        Stored baseStored = load(base);
+        if (baseStored == null || baseStored.type == PackFile.TYPE_MANIFEST
+            || baseStored.depth() >= MAX_DELTA_DEPTH) {
+            return false;
+        }
+        byte[] delta = Delta.create(read(base), contents);
+        if (delta.length >= contents.length / 2) {
+            return false;
+        }
+        File tmp = tempFile();
+        Utils.writeContents(tmp, Utils.sha1Bytes(base),
+                new byte[] {(byte) (baseStored.depth() + 1)}, delta);
+        install(tmp, deltaFile(id));
+        return true;
+    }
+
+    /** Returns a new temporary file in Main.blobsArea. */
+    private static File tempFile() {
+        try {
+            return File.createTempFile("tmp-", null, Main.blobsArea);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff new loose blobs are stored deflated. */
+    private static boolean compressing() {
+        return Config.getBoolean(Config.COMPRESSION, true);
+    }
+
+    /** Returns the loose file in which a new blob ID is stored whole. */
+    private static File storedFile(String id) {
+        return compressing() ? deflatedFile(id) : looseFile(id);
+    }
+
+    /** Returns a buffered stream into FILE that deflates what is written
+     *  to it if new blobs are stored deflated. */
+    private static OutputStream storing(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE);
+        return compressing() ? new DeflaterOutputStream(out) : out;
+    }
+
+    /** Renames the finished temporary file TMP to TARGET. */
+    private static void install(File tmp, File target) {
+        Durability.install(tmp, target);
+    }
+
+    /** Returns DATA inflated. */
+    private static byte[] inflate(byte[] data) {
+        try (InputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Moves every loose blob, in whatever form, into a single new pack
+     *  and returns the number of blobs packed. */
+    static int repack() {
+        List<String> ids = new ArrayList<>(looseIds());
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        PackFile.write(Main.packsArea, ids, new PackFile.Source() {
+            @Override
+            public byte type(String id) {
+                if (deflatedFile(id).isFile()) {
+                    return PackFile.TYPE_DEFLATED;
+                } else if (deltaFile(id).isFile()) {
+                    return PackFile.TYPE_DELTA;
+                } else if (manifestFile(id).isFile()) {
+                    return PackFile.TYPE_MANIFEST;
+                }
+                return PackFile.TYPE_FULL;
+            }
+
+            @Override
+            public long copy(String id, OutputStream out) throws IOException {
+                File file = deflatedFile(id);
+                if (!file.isFile()) {
+                    file = deltaFile(id).isFile() ? deltaFile(id)
+                        : manifestFile(id).isFile() ? manifestFile(id)
+                        : looseFile(id);
+                }
+                return Files.copy(file.toPath(), out);
+            }
+        });
+        reloadPacks();
+        Durability.sync(); /* The pack must be on disk before the loose
+                            * copies are deleted. */
+        for (String id : ids) {
+            deleteLoose(id);
+        }
+        return ids.size();
+    }
+
+    /** Returns the ids of the blobs stored loose, in any form. */
+    static TreeSet<String> looseIds() {
+        TreeSet<String> found = new TreeSet<>();
+        List<String> names = Utils.plainFilenamesIn(Main.blobsArea);
+        if (names == null) {
+            return found;
+        }
+        for (String name : names) {
+            String id = name.length() < Utils.UID_LENGTH ? ""
+                : name.substring(0, Utils.UID_LENGTH);
+            String suffix = name.substring(id.length());
+            if (id.length() == Utils.UID_LENGTH
+                && (suffix.isEmpty() || suffix.equals(DEFLATED_SUFFIX)
+                    || suffix.equals(DELTA_SUFFIX)
+                    || suffix.equals(MANIFEST_SUFFIX))) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    /** Returns the loose files holding blob ID, in any form. */
+    static List<File> looseFiles(String id) {
+        List<File> result = new ArrayList<>();
+        for (File file : new File[] {deflatedFile(id), deltaFile(id),
+                                     looseFile(id), manifestFile(id)}) {
+            if (file.isFile()) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /** Deletes the loose copies of blob ID and returns the number of
+     *  bytes they took. */
+    static long deleteLoose(String id) {
+        long freed = 0;
+        for (File file : looseFiles(id)) {
+            long length = file.length();
+            if (file.delete()) {
+                freed += length;
+            }
+        }
+        return freed;
+    }
+
+    /** Returns the ids of the blobs that blob ID, as stored, cannot be
+     *  read without: the base of a delta or the chunks of a manifest.
+     *  None if it is stored whole or absent. */
+    static List<String> references(String id) {
+        for (PackFile pack : packs()) {
+            int k = pack.find(id);
+            if (k >= 0) {
+                byte type = pack.typeAt(k);
+                if (type == PackFile.TYPE_DELTA) {
+                    return List.of(new Stored(type, pack.dataAt(k)).base());
+                } else if (type == PackFile.TYPE_MANIFEST) {
+                    return chunks(pack.dataAt(k));
+                }
+                return List.of();
+            }
+        }
+        if (!deflatedFile(id).isFile()) {
+            if (deltaFile(id).isFile()) {
+                return List.of(Utils.sha1Hex(
+                        Utils.readContents(deltaFile(id)), 0));
+            } else if (!looseFile(id).isFile()
+                       && manifestFile(id).isFile()) {
+                return chunks(Utils.readContents(manifestFile(id)));
+            }
+        }
+        return List.of();
+    }
+}
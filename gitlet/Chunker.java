@@ -0,0 +1,57 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Content-defined chunking in the style of FastCDC.  A gear hash is
+ *  rolled over the data, and a chunk ends where the hash's top bits are
+ *  all zero.  Because boundaries depend only on nearby content, an edit
+ *  changes the chunks around it and leaves the others, and so their ids,
+ *  as they were.  Chunks are between MIN_SIZE and MAX_SIZE bytes long.
+ *  Below AVG_SIZE a stricter mask is used and above it a looser one
+ *  ("normalized chunking"), which keeps most chunks close to AVG_SIZE. */
+class Chunker {
+
+    /** Bounds on the size of a chunk, and the size aimed for. */
+    static final int MIN_SIZE = 16 << 10, AVG_SIZE = 64 << 10,
+        MAX_SIZE = 256 << 10;
+    /** Masks of the hash bits that must be zero at a boundary: two more
+     *  and two fewer bits than the log of AVG_SIZE. */
+    private static final long MASK_S = -1L << (64 - 18),
+        MASK_L = -1L << (64 - 14);
+    /** Random values mixed into the hash for each byte value.  They are
+     *  part of the storage format: changing them moves every boundary. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x676c69746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Returns the length of the chunk that starts DATA, of which the
+     *  first N bytes are valid.  N is less than MAX_SIZE only at the end
+     *  of the input. */
+    static int cut(byte[] data, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int end = Math.min(n, MAX_SIZE);
+        int normal = Math.min(end, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
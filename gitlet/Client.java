@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** Thin command-line client for GitletDaemon.
+ *  Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main.
+ *  The command is sent to the daemon of the repository in the current
+ *  directory, and its output is passed on.  If no daemon is running, the
+ *  command is run in this process instead.  As with gitlet.Main, the exit
+ *  status is 0 even when the command fails with an error, and 1 only if
+ *  it failed unexpectedly.
+ *  @author Ricardo Mo
+ */
+public class Client {
+
+    /** Runs ARGS through the daemon, or directly without one. */
+    public static void main(String[] args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(GitletDaemon.address());
+        } catch (IOException excp) {
+            Main.run(args);
+            System.exit(0);
+            return;
+        }
+        try (channel) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(channel));
+            int status = in.readInt();
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            System.out.write(output);
+            System.out.flush();
+            System.exit(status == GitletDaemon.CRASHED ? 1 : 0);
+        }
+    }
+}
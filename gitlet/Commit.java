@@ -6,24 +6,46 @@ import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.sql.Timestamp;
 import java.io.File;
+import java.io.PrintStream;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 
 public class Commit implements Serializable{
+    /** the version id of commits written with Java serialization, which must still deserialize */
+    private static final long serialVersionUID = 3308317039134349017L;
     private String parent; //the sha1 hash of the parent commit.
     private HashMap<String, String> files; //the array of all files in this commit.
     private String time; //the timestamp of a commit;
     private String message;
     private String sha1Code;
     private String parent2 = null; //the sha1 code for ancestor
+    private transient byte[] encoded; //the encoded commit, while its file table is not yet decoded
+    private transient int filesStart = -1; //where the file table starts in encoded
+    private transient String tree; //the id of the root tree holding the files, for commits in the binary format
+
+    /** the most commits kept decoded in memory */
+    private static final int CACHE_SIZE = 1024;
+    /** commits loaded recently, least recently used first; commits never change once stored, so they can be shared */
+    private static final LinkedHashMap<String, Commit> cache = new LinkedHashMap<>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest){
+            return size() > CACHE_SIZE;
+        }
+    };
+    /** number of loads answered from and not from the cache */
+    private static long cacheHits, cacheMisses;
 
     /** Constructor for initial commit */
     public Commit(){
@@ -36,23 +58,113 @@ public class Commit implements Serializable{
 
     /** By default, each commit’s snapshot of files will be exactly the same as its parent commit’s snapshot of files */
     public Commit(String parent){
-        File parentPath = new File(".gitlet/committing", parent);
-        Commit parentCommit = Utils.readObject(parentPath, Commit.class);
+        Commit parentCommit = load(parent);
         this.parent = parent;
-        this.files = parentCommit.files;
+        if(parentCommit.tree != null){ //share the parent's tree, without reading it
+            this.tree = parentCommit.tree;
+        }else{
+            this.files = parentCommit.getFiles() == null ? null : new HashMap<>(parentCommit.getFiles()); //the parent may be shared through the cache
+        }
         this.time = parentCommit.time;
         this.message = parentCommit.message;
         this.sha1Code = parentCommit.sha1Code;
     }
 
+    /** Constructor used by CommitCodec for a decoded commit whose file table starts at FILESSTART in ENCODED (-1 if it has none) */
+    Commit(String sha1Code, String parent, String parent2, String time, String message, byte[] encoded, int filesStart){
+        this.sha1Code = sha1Code;
+        this.parent = parent;
+        this.parent2 = parent2;
+        this.time = time;
+        this.message = message;
+        this.encoded = filesStart >= 0 ? encoded : null;
+        this.filesStart = filesStart;
+    }
+
+    /** Returns the commit with id ID, from the cache or else in either the binary or the old serialized format */
+    public static Commit load(String id){
+        synchronized(Commit.class){
+            Commit cached = cache.get(id);
+            if(cached != null){
+                cacheHits += 1;
+                return cached;
+            }
+            cacheMisses += 1;
+        }
+        Commit commit = read(id); // other commits can be read meanwhile, as gc does on all cores
+        synchronized(Commit.class){
+            cache.put(id, commit);
+        }
+        return commit;
+    }
+
+    /** the number of loads answered from the cache */
+    public static synchronized long cacheHits(){return cacheHits;}
+
+    /** the number of loads that read the committing area */
+    public static synchronized long cacheMisses(){return cacheMisses;}
+
+    /** Reads the commit with id ID from the committing area */
+    private static Commit read(String id){
+        byte[] data = Utils.readContents(Utils.join(Main.committingArea, id));
+        if(CommitCodec.isSerialized(data)){
+            Commit commit = Utils.deserialize(data, Commit.class);
+            commit.sha1Code = id;
+            return commit;
+        }
+        return CommitCodec.decode(id, data);
+    }
+
+    /** Sets the id of this commit to the hash of its canonical encoding, writes it to the committing area and returns the id */
+    public String store(){
+        byte[] data = CommitCodec.encode(this);
+        this.sha1Code = Utils.sha1(data);
+        File path = Utils.join(Main.committingArea, this.sha1Code);
+        if(!path.exists()){
+            Durability.write(path, data);
+        }
+        return this.sha1Code;
+    }
+
+    /** the format of commit dates */
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("E MMM d HH:mm:ss uuuu xxxx", new Locale("en", "US"));
+
     public String setDate(){
-        return this.time = ZonedDateTime.now().format(DateTimeFormatter
-                .ofPattern("E MMM d HH:mm:ss uuuu xxxx", new Locale("en", "US")));
+        return this.time = ZonedDateTime.now().format(DATE_FORMAT);
+    }
+
+    /** the date of this commit as an instant, or null if it is not in DATE_FORMAT (as fast-import allows) */
+    public Instant getInstant(){
+        try{
+            return ZonedDateTime.parse(this.time, DATE_FORMAT).toInstant();
+        }catch(DateTimeParseException | NullPointerException e){
+            return null;
+        }
     }
     /** getter method */
     public String getParent(){return this.parent;}
 
-    public HashMap<String, String> getFiles(){return this.files;}
+    public HashMap<String, String> getFiles(){
+        if(this.encoded != null){ //decode the file table on first use
+            this.files = CommitCodec.decodeFiles(this.encoded, this.filesStart);
+            this.encoded = null;
+        }else if(this.files == null && this.tree != null){ //read the tree on first use
+            this.files = Tree.flatten(this.tree);
+        }
+        return this.files;
+    }
+
+    /** the id of the tree holding the files of this commit, storing the tree first if the commit has none yet; null for the initial commit */
+    public String getTree(){
+        if(this.tree == null && getFiles() != null){
+            this.tree = Tree.write(this.files);
+        }
+        return this.tree;
+    }
+
+    /** the id of the stored tree holding the files of this commit, or null if they are kept in the commit itself */
+    public String getStoredTree(){return this.tree;}
 
     public String getTime(){return this.time;}
 
@@ -73,15 +185,18 @@ public class Commit implements Serializable{
 
     public void setMessage(String message){this.message = message;}
 
-    public void setFiles(HashMap<String, String> files) { this.files = files;}
+    public void setFiles(HashMap<String, String> files) { this.files = files; this.encoded = null; this.tree = null;}
 
+    /** set the files of this commit to those of the stored tree TREE */
+    public void setTree(String tree) { this.tree = tree; this.files = null; this.encoded = null;}
 
-    public void printLog() {
-        System.out.println("===");
-        System.out.println("commit " + this.sha1Code);
-        System.out.println("Date: " + this.time);
-        System.out.println(this.message);
-        System.out.println();
 
+    /** print the log entry of this commit to OUT */
+    public void printLog(PrintStream out) {
+        out.println("===");
+        out.println("commit " + this.sha1Code);
+        out.println("Date: " + this.time);
+        out.println(this.message);
+        out.println();
     }
 }
\ No newline at end of file
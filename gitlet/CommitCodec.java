@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/** The binary format in which commits are stored.  A commit is
+ *      "GLC" VERSION FLAGS [PARENT] [PARENT2] TIME MESSAGE [TREE]
+ *  where FLAGS says which of PARENT, PARENT2 and TREE are present, the
+ *  parents and TREE, the root of the commit's Tree, are fixed-width
+ *  binary SHA-1s, and TIME and MESSAGE are varint-length UTF-8 strings.
+ *  The encoding of a commit is canonical, and its SHA-1 is the commit's
+ *  id.  A commit's size therefore does not depend on how many files it
+ *  tracks.
+ *
+ *  Version 1 stored FILES instead of TREE: a varint count followed by that
+ *  many (varint-length UTF-8 name, binary blob SHA-1) pairs sorted by
+ *  name.  Such commits are still read; their file table is left as bytes
+ *  until Commit.getFiles is first called.  Commits written by older
+ *  versions with Java serialization are recognized by their stream header
+ *  and still read. */
+class CommitCodec {
+
+    /** Magic bytes and current version of the format. */
+    private static final byte[] MAGIC = {'G', 'L', 'C'};
+    static final int VERSION = 2;
+    /** Bits of FLAGS.  HAS_FILES appears only in version 1. */
+    private static final int HAS_PARENT = 1, HAS_PARENT2 = 2, HAS_FILES = 4,
+        HAS_TREE = 8;
+    /** First two bytes of a Java serialization stream. */
+    private static final int SERIAL_MAGIC = 0xaced;
+
+    /** Returns the canonical encoding of COMMIT. */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        String tree = commit.getTree();
+        int flags = (commit.getParent() != null ? HAS_PARENT : 0)
+            | (commit.getParent2() != null ? HAS_PARENT2 : 0)
+            | (tree != null ? HAS_TREE : 0);
+        out.write(flags);
+        if (commit.getParent() != null) {
+            out.write(Utils.sha1Bytes(commit.getParent()), 0, Utils.UID_BYTES);
+        }
+        if (commit.getParent2() != null) {
+            out.write(Utils.sha1Bytes(commit.getParent2()), 0, Utils.UID_BYTES);
+        }
+        writeString(out, commit.getTime());
+        writeString(out, commit.getMessage());
+        if (tree != null) {
+            out.write(Utils.sha1Bytes(tree), 0, Utils.UID_BYTES);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns true iff DATA is a commit in this format. */
+    static boolean isEncoded(byte[] data) {
+        return data.length > MAGIC.length && data[0] == MAGIC[0]
+            && data[1] == MAGIC[1] && data[2] == MAGIC[2];
+    }
+
+    /** Returns true iff DATA is a Java-serialized object. */
+    static boolean isSerialized(byte[] data) {
+        return data.length > 2
+            && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) == SERIAL_MAGIC;
+    }
+
+    /** Returns the commit with id ID encoded in DATA.  Its file table is
+     *  decoded on demand. */
+    static Commit decode(String id, byte[] data) {
+        int version = isEncoded(data) ? data[MAGIC.length] : -1;
+        if (version != 1 && version != VERSION) {
+            throw new IllegalArgumentException("unknown commit format " + id);
+        }
+        int[] pos = {MAGIC.length + 1};
+        int flags = data[pos[0]];
+        pos[0] += 1;
+        String parent = null, parent2 = null;
+        if ((flags & HAS_PARENT) != 0) {
+            parent = Utils.sha1Hex(data, pos[0]);
+            pos[0] += Utils.UID_BYTES;
+        }
+        if ((flags & HAS_PARENT2) != 0) {
+            parent2 = Utils.sha1Hex(data, pos[0]);
+            pos[0] += Utils.UID_BYTES;
+        }
+        String time = readString(data, pos);
+        String message = readString(data, pos);
+        if ((flags & HAS_TREE) != 0) {
+            Commit commit = new Commit(id, parent, parent2, time, message,
+                    null, -1);
+            commit.setTree(Utils.sha1Hex(data, pos[0]));
+            return commit;
+        }
+        int filesStart = (flags & HAS_FILES) != 0 ? pos[0] : -1;
+        return new Commit(id, parent, parent2, time, message, data, filesStart);
+    }
+
+    /** Returns the file table of an encoded commit DATA, which starts at
+     *  START. */
+    static HashMap<String, String> decodeFiles(byte[] data, int start) {
+        int[] pos = {start};
+        int count = (int) Utils.readVarint(data, pos);
+        HashMap<String, String> files = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i += 1) {
+            String name = readString(data, pos);
+            files.put(name, Utils.sha1Hex(data, pos[0]));
+            pos[0] += Utils.UID_BYTES;
+        }
+        return files;
+    }
+
+    /** Writes S to OUT as a varint length and UTF-8 bytes. */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Reads a string written by writeString from DATA at POS[0]. */
+    private static String readString(byte[] data, int[] pos) {
+        int length = (int) Utils.readVarint(data, pos);
+        String s = new String(data, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return s;
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Tests of the formats in which commits are stored: the current binary
+ *  format, the version 1 format that kept the file table in the commit,
+ *  and Java serialization.
+ *  @author Ricardo Mo
+ */
+public class CommitCodecTest {
+
+    /** Ids used as parents, trees and blobs. */
+    private static final String PARENT = Utils.sha1("parent"),
+        PARENT2 = Utils.sha1("parent2"), TREE = Utils.sha1("tree");
+    /** A commit date. */
+    private static final String TIME = "Sat Oct 17 09:30:00 2026 -0700";
+
+    /** Returns the commit encoded in DATA, named by its hash. */
+    private static Commit decode(byte[] data) {
+        return CommitCodec.decode(Utils.sha1(data), data);
+    }
+
+    /** Writes S to OUT as CommitCodec does. */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Utils.writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void currentVersionRoundTrip() {
+        Commit commit = new Commit(null, PARENT, PARENT2, TIME,
+                "Merged b into master.\nwith ünïcode", null, -1);
+        commit.setTree(TREE);
+        byte[] data = CommitCodec.encode(commit);
+        assertTrue(CommitCodec.isEncoded(data));
+        assertFalse(CommitCodec.isSerialized(data));
+        assertEquals(CommitCodec.VERSION, data[3]);
+        Commit decoded = decode(data);
+        assertEquals(Utils.sha1(data), decoded.getSha1Code());
+        assertEquals(PARENT, decoded.getParent());
+        assertEquals(PARENT2, decoded.getParent2());
+        assertEquals(TIME, decoded.getTime());
+        assertEquals(commit.getMessage(), decoded.getMessage());
+        assertEquals(TREE, decoded.getStoredTree());
+        assertArrayEquals(data, CommitCodec.encode(decoded));
+    }
+
+    @Test
+    public void initialCommitRoundTrip() {
+        Commit initial = new Commit();
+        byte[] data = CommitCodec.encode(initial);
+        Commit decoded = decode(data);
+        assertNull(decoded.getParent());
+        assertNull(decoded.getParent2());
+        assertNull(decoded.getStoredTree());
+        assertNull(decoded.getFiles());
+        assertEquals("initial commit", decoded.getMessage());
+        assertArrayEquals(data, CommitCodec.encode(decoded));
+    }
+
+    @Test
+    public void encodingIsCanonical() {
+        Commit a = new Commit(null, PARENT, null, TIME, "m", null, -1);
+        Commit b = new Commit(null, PARENT, null, TIME, "m", null, -1);
+        a.setTree(TREE);
+        b.setTree(TREE);
+        assertArrayEquals(CommitCodec.encode(a), CommitCodec.encode(b));
+        b.setMessage("n");
+        assertNotEquals(Utils.sha1(CommitCodec.encode(a)),
+                        Utils.sha1(CommitCodec.encode(b)));
+    }
+
+    @Test
+    public void readsVersion1() {
+        TreeMap<String, String> files = new TreeMap<>();
+        files.put("a.txt", Utils.sha1("a"));
+        files.put("b.txt", Utils.sha1("b"));
+        files.put("ç.txt", Utils.sha1("c"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('G');
+        out.write('L');
+        out.write('C');
+        out.write(1);
+        out.write(1 | 4);
+        out.write(Utils.sha1Bytes(PARENT), 0, Utils.UID_BYTES);
+        writeString(out, TIME);
+        writeString(out, "old format");
+        Utils.writeVarint(out, files.size());
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            writeString(out, e.getKey());
+            out.write(Utils.sha1Bytes(e.getValue()), 0, Utils.UID_BYTES);
+        }
+        Commit decoded = decode(out.toByteArray());
+        assertEquals(PARENT, decoded.getParent());
+        assertNull(decoded.getParent2());
+        assertEquals(TIME, decoded.getTime());
+        assertEquals("old format", decoded.getMessage());
+        assertNull(decoded.getStoredTree());
+        assertEquals(new HashMap<>(files), decoded.getFiles());
+    }
+
+    @Test
+    public void rejectsUnknownVersions() {
+        byte[] data = CommitCodec.encode(new Commit());
+        data[3] = 9;
+        try {
+            decode(data);
+            fail("decoded version 9");
+        } catch (IllegalArgumentException excp) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void readsSerializedCommits() {
+        Commit commit = new Commit();
+        HashMap<String, String> files = new HashMap<>();
+        files.put("f.txt", Utils.sha1("f"));
+        commit.setFiles(files);
+        commit.setParent2(PARENT2);
+        byte[] data = Utils.serialize(commit);
+        assertTrue(CommitCodec.isSerialized(data));
+        assertFalse(CommitCodec.isEncoded(data));
+        Commit read = Utils.deserialize(data, Commit.class);
+        assertNull(read.getParent());
+        assertEquals(PARENT2, read.getParent2());
+        assertEquals(commit.getTime(), read.getTime());
+        assertEquals("initial commit", read.getMessage());
+        assertEquals(files, read.getFiles());
+        assertNull(read.getStoredTree());
+    }
+
+    @Test
+    public void serialVersionIsUnchanged() {
+        assertEquals(3308317039134349017L,
+                     ObjectStreamClass.lookup(Commit.class)
+                     .getSerialVersionUID());
+    }
+}
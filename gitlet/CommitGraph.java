@@ -0,0 +1,436 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+/** A flat, append-only file describing the shape of the commit history,
+ *  so that ancestry questions are answered by walking integer arrays
+ *  rather than by reading Commit objects.  The file is the header
+ *  "GLCG" VERSION followed by one fixed-width row per commit:
+ *      ID  PARENT  PARENT2  GENERATION
+ *  where ID is the commit's binary SHA-1, PARENT and PARENT2 are the row
+ *  numbers of its parents (-1 if absent) and GENERATION is one more than
+ *  the largest generation of its parents (1 for the initial commit).
+ *  Parents always precede their children, so rows never move once
+ *  written.  Commits missing from the graph, such as those of
+ *  repositories created before it existed, are added the first time they
+ *  are looked up.
+ *
+ *  Next to the graph, .gitlet/graph/bitmaps holds for each commit that is
+ *  a branch head the set of rows reachable from it, as an EwahBitmap named
+ *  by the commit's id (see storeTips).  A new head's bitmap is the union
+ *  of its parents' bitmaps plus its own row, so keeping them up to date
+ *  costs a few words per commit, and "is X an ancestor of Y" is a single
+ *  bit test.  Bitmaps of commits that stop being heads are deleted, so
+ *  there are about as many as there are branches. */
+class CommitGraph {
+
+    /** Magic number and version of the graph file. */
+    private static final int MAGIC = 0x474c4347, VERSION = 1;
+    /** Sizes of the header and of a row, in bytes. */
+    private static final int HEADER = 8, ROW = Utils.UID_BYTES + 12;
+    /** Value of a missing parent. */
+    static final int NONE = -1;
+
+    /** The graph of the current repository, if loaded. */
+    private static CommitGraph graph;
+
+    /** The graph file. */
+    private final File file;
+    /** Number of rows. */
+    private int size;
+    /** Binary ids of the rows, UID_BYTES each. */
+    private byte[] ids;
+    /** Parents and generations of the rows. */
+    private int[] parents, parents2, generations;
+    /** Row number of each id. */
+    private final HashMap<String, Integer> rows = new HashMap<>();
+    /** Length of FILE when it was last read or written. */
+    private long fileLength;
+    /** File key (device and inode on Unix) of FILE when it was last
+     *  read or written, or null. */
+    private Object fileKey;
+    /** Reachability bitmaps decoded so far, by row. */
+    private final HashMap<Integer, BitSet> bitmaps = new HashMap<>();
+
+    /** Returns the graph of the current repository, reading any rows
+     *  appended to its file since it was last read. */
+    static synchronized CommitGraph get() {
+        File file = Utils.join(Main.graphArea, "commit-graph");
+        if (graph == null) {
+            graph = new CommitGraph(file);
+        }
+        graph.refresh();
+        return graph;
+    }
+
+    /** Forgets the loaded graph, for instance after the file is
+     *  rebuilt. */
+    static synchronized void reset() {
+        graph = null;
+    }
+
+    /** A graph stored in FILE. */
+    private CommitGraph(File file) {
+        this.file = file;
+        this.ids = new byte[16 * Utils.UID_BYTES];
+        this.parents = new int[16];
+        this.parents2 = new int[16];
+        this.generations = new int[16];
+    }
+
+    /** Reads the rows of FILE not yet loaded. */
+    private void refresh() {
+        Object key = fileKey();
+        if (!Objects.equals(key, fileKey) || file.length() < fileLength) {
+            size = 0; /* Rebuilt, as by gc, perhaps in another process. */
+            fileLength = 0;
+            rows.clear();
+            bitmaps.clear();
+        }
+        fileKey = key;
+        if (!file.isFile() || file.length() < HEADER
+            || file.length() == fileLength) {
+            return; /* A header cut short holds no rows. */
+        }
+        byte[] data = Utils.readContents(file);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (data.length < HEADER || buf.getInt(0) != MAGIC
+            || buf.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt commit graph");
+        }
+        int total = (data.length - HEADER) / ROW;
+        for (int r = size; r < total; r += 1) {
+            int at = HEADER + r * ROW;
+            grow();
+            System.arraycopy(data, at, ids, r * Utils.UID_BYTES,
+                    Utils.UID_BYTES);
+            parents[r] = buf.getInt(at + Utils.UID_BYTES);
+            parents2[r] = buf.getInt(at + Utils.UID_BYTES + 4);
+            generations[r] = buf.getInt(at + Utils.UID_BYTES + 8);
+            rows.put(Utils.sha1Hex(data, at), r);
+            size += 1;
+        }
+        fileLength = HEADER + (long) size * ROW;
+    }
+
+    /** Returns the file key of FILE, or null if it does not exist. */
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class).fileKey();
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Makes room for one more row. */
+    private void grow() {
+        if (size == parents.length) {
+            int n = size * 2;
+            ids = Arrays.copyOf(ids, n * Utils.UID_BYTES);
+            parents = Arrays.copyOf(parents, n);
+            parents2 = Arrays.copyOf(parents2, n);
+            generations = Arrays.copyOf(generations, n);
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the id of the commit in row R. */
+    String id(int r) {
+        return Utils.sha1Hex(ids, r * Utils.UID_BYTES);
+    }
+
+    /** Returns the row of the first parent of row R, or NONE. */
+    int parent(int r) {
+        return parents[r];
+    }
+
+    /** Returns the row of the second parent of row R, or NONE. */
+    int parent2(int r) {
+        return parents2[r];
+    }
+
+    /** Returns the generation number of row R. */
+    int generation(int r) {
+        return generations[r];
+    }
+
+    /** Returns the row of commit ID, adding it and any of its ancestors
+     *  that are missing from the graph. */
+    int row(String id) {
+        Integer r = rows.get(id);
+        if (r != null) {
+            return r;
+        }
+        int added = 0;
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(id);
+        while (!work.isEmpty()) {
+            String next = work.peek();
+            if (rows.containsKey(next)) {
+                work.pop();
+                continue;
+            }
+            Commit commit = Commit.load(next);
+            boolean ready = true;
+            for (String p : new String[] {commit.getParent(), commit.getParent2()}) {
+                if (p != null && !rows.containsKey(p)) {
+                    work.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                work.pop();
+                addRow(commit);
+                added += 1;
+            }
+        }
+        append(added);
+        return rows.get(id);
+    }
+
+    /** Adds the new commit COMMIT to the graph and its file, unless it is
+     *  already present. */
+    void add(Commit commit) {
+        if (!rows.containsKey(commit.getSha1Code())) {
+            for (String p : new String[] {commit.getParent(), commit.getParent2()}) {
+                if (p != null) {
+                    row(p);
+                }
+            }
+            addRow(commit);
+            append(1);
+        }
+    }
+
+    /** Adds a row for COMMIT, whose parents are in the graph, in memory. */
+    private void addRow(Commit commit) {
+        grow();
+        int p1 = commit.getParent() == null ? NONE : rows.get(commit.getParent());
+        int p2 = commit.getParent2() == null ? NONE : rows.get(commit.getParent2());
+        int gen = 1 + Math.max(p1 == NONE ? 0 : generations[p1],
+                p2 == NONE ? 0 : generations[p2]);
+        System.arraycopy(Utils.sha1Bytes(commit.getSha1Code()), 0, ids,
+                size * Utils.UID_BYTES, Utils.UID_BYTES);
+        parents[size] = p1;
+        parents2[size] = p2;
+        generations[size] = gen;
+        rows.put(commit.getSha1Code(), size);
+        size += 1;
+    }
+
+    /** Appends the last COUNT rows to the graph file.  Anything after the
+     *  rows already written, such as part of a row whose writing a crash
+     *  cut short, is cut off first, so that the rows stay aligned.  The
+     *  file is forced with the objects, before the next ref update (see
+     *  Durability). */
+    private void append(int count) {
+        if (count == 0) {
+            return;
+        }
+        Main.graphArea.mkdir();
+        int from = size - count;
+        boolean fresh = !file.isFile() || file.length() < HEADER;
+        if (fresh) {
+            from = 0;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((fresh ? HEADER : 0)
+                                             + (size - from) * ROW);
+        if (fresh) {
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+        }
+        for (int r = from; r < size; r += 1) {
+            buf.put(ids, r * Utils.UID_BYTES, Utils.UID_BYTES);
+            buf.putInt(parents[r]);
+            buf.putInt(parents2[r]);
+            buf.putInt(generations[r]);
+        }
+        buf.flip();
+        long start = fresh ? 0 : HEADER + (long) from * ROW;
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ch.truncate(start);
+            ch.position(start);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(file);
+        fileLength = HEADER + (long) size * ROW;
+        fileKey = fileKey();
+    }
+
+    /** Returns the directory of reachability bitmaps. */
+    private static File bitmapDir() {
+        return Utils.join(Main.graphArea, "bitmaps");
+    }
+
+    /** Returns the file holding the reachability bitmap of row R. */
+    private File bitmapFile(int r) {
+        return Utils.join(bitmapDir(), id(r));
+    }
+
+    /** Returns the set of rows reachable from row R, R included, from its
+     *  stored bitmap if there is one.  Otherwise the set is built from the
+     *  parents' bitmaps, or by walking the graph if they have none.  A
+     *  stored bitmap that is damaged is deleted, so that storeTips writes
+     *  it again. */
+    BitSet reachable(int r) {
+        BitSet result = bitmaps.get(r);
+        if (result != null) {
+            return result;
+        }
+        File stored = bitmapFile(r);
+        if (stored.isFile()) {
+            result = readBitmap(stored, r);
+        }
+        if (result == null) {
+            boolean parentsStored = true;
+            for (int p : new int[] {parents[r], parents2[r]}) {
+                parentsStored &= p == NONE || bitmaps.containsKey(p)
+                    || bitmapFile(p).isFile();
+            }
+            if (parentsStored) {
+                result = new BitSet(size);
+                for (int p : new int[] {parents[r], parents2[r]}) {
+                    if (p != NONE) {
+                        result.or(reachable(p));
+                    }
+                }
+                result.set(r);
+            } else {
+                result = ancestors(r);
+            }
+        }
+        bitmaps.put(r, result);
+        return result;
+    }
+
+    /** Returns the bitmap of row R stored in FILE, or null, deleting FILE,
+     *  if it is damaged.  Parents precede their children, so R is the
+     *  highest row of a whole bitmap. */
+    private BitSet readBitmap(File file, int r) {
+        try {
+            BitSet result = EwahBitmap.decode(Utils.readContents(file));
+            if (result.length() == r + 1) {
+                return result;
+            }
+        } catch (IllegalArgumentException excp) {
+            /* Damaged; rebuilt below. */
+        }
+        file.delete();
+        return null;
+    }
+
+    /** Stores the reachability bitmap of each of the commits TIPS, the
+     *  branch heads, that has none, and deletes the bitmaps of all other
+     *  commits.  The new bitmaps are stored first, so that they can still
+     *  be built from those of the heads they replace, and through a
+     *  temporary file, so that none is seen half written. */
+    void storeTips(Collection<String> tips) {
+        HashSet<String> keep = new HashSet<>(tips);
+        for (String id : keep) {
+            int r = row(id);
+            File stored = bitmapFile(r);
+            if (!stored.isFile()) {
+                BitSet result = reachable(r);
+                stored.getParentFile().mkdirs();
+                Durability.write(stored, EwahBitmap.encode(result));
+            }
+        }
+        List<String> names = Utils.plainFilenamesIn(bitmapDir());
+        if (names != null) {
+            for (String name : names) {
+                if (!keep.contains(name)) {
+                    Utils.join(bitmapDir(), name).delete();
+                }
+            }
+        }
+    }
+
+    /** Returns the set of rows reachable from row FROM, FROM included. */
+    BitSet ancestors(int from) {
+        BitSet seen = new BitSet(size);
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(from);
+        seen.set(from);
+        while (!work.isEmpty()) {
+            int r = work.pop();
+            for (int p : new int[] {parents[r], parents2[r]}) {
+                if (p != NONE && !seen.get(p)) {
+                    seen.set(p);
+                    work.push(p);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Returns true iff row ANCESTOR is reachable from row FROM.  Rows
+     *  whose generation is below ANCESTOR's cannot lead to it and are not
+     *  visited. */
+    boolean isAncestor(int ancestor, int from) {
+        int floor = generations[ancestor];
+        BitSet seen = new BitSet(size);
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(from);
+        while (!work.isEmpty()) {
+            int r = work.pop();
+            if (r == ancestor) {
+                return true;
+            }
+            for (int p : new int[] {parents[r], parents2[r]}) {
+                if (p != NONE && !seen.get(p) && generations[p] >= floor) {
+                    seen.set(p);
+                    work.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the row of the split point of rows CURR and GIVEN: the
+     *  first commit reached by a breadth-first search back from CURR that
+     *  is also reachable from GIVEN, or NONE if there is none. */
+    int splitPoint(int curr, int given) {
+        BitSet givenAncestors = ancestors(given);
+        BitSet seen = new BitSet(size);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(curr);
+        seen.set(curr);
+        while (!queue.isEmpty()) {
+            int r = queue.poll();
+            if (givenAncestors.get(r)) {
+                return r;
+            }
+            for (int p : new int[] {parents[r], parents2[r]}) {
+                if (p != NONE && !seen.get(p)) {
+                    seen.set(p);
+                    queue.add(p);
+                }
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** A persistent index of commit ids for resolving abbreviated ids.  It is
+ *  made of two files in Main.graphArea:
+ *      commit-ids      "GLCI" VERSION COUNT IDS[COUNT], the binary ids
+ *                      sorted, memory-mapped and binary-searched;
+ *      commit-ids.new  binary ids appended as commits are made, unsorted.
+ *  When the second file holds more than MAX_PENDING ids, both are merged
+ *  into a new sorted file.  A lookup therefore costs O(log n) plus a scan
+ *  of at most MAX_PENDING ids, however many commits there are.  If the
+ *  index does not exist yet it is built from Main.committingArea. */
+class CommitIndex {
+
+    /** Magic number and version of the sorted file. */
+    private static final int MAGIC = 0x474c4349, VERSION = 1;
+    /** Size of the header of the sorted file. */
+    private static final int HEADER = 12;
+    /** Largest number of unsorted ids kept before merging. */
+    private static final int MAX_PENDING = 1024;
+
+    /** Returns the sorted file. */
+    private static File sortedFile() {
+        return Utils.join(Main.graphArea, "commit-ids");
+    }
+
+    /** Returns the file of unsorted ids. */
+    private static File pendingFile() {
+        return Utils.join(Main.graphArea, "commit-ids.new");
+    }
+
+    /** Records the new commit id ID. */
+    static void add(String id) {
+        addAll(List.of(id));
+    }
+
+    /** Records the new commit ids IDS. */
+    static void addAll(Collection<String> ids) {
+        if (!sortedFile().isFile()) {
+            rebuild();
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(pendingFile(), true))) {
+            for (String id : ids) {
+                out.write(Utils.sha1Bytes(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(pendingFile());
+        if (pendingFile().length() > (long) MAX_PENDING * Utils.UID_BYTES) {
+            compact();
+        }
+    }
+
+    /** Returns up to LIMIT ids of commits that start with the hexadecimal
+     *  PREFIX, in order. */
+    static List<String> lookup(String prefix, int limit) {
+        prefix = prefix.toLowerCase();
+        TreeSet<String> found = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return new ArrayList<>();
+        }
+        if (!sortedFile().isFile()) {
+            rebuild();
+        }
+        MappedByteBuffer sorted = map(sortedFile());
+        int count = sorted.getInt(8);
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hexAt(sorted, mid, prefix.length()).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < count && found.size() < limit; k += 1) {
+            String id = hexAt(sorted, k, Utils.UID_LENGTH);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            found.add(id);
+        }
+        for (String id : pending()) {
+            if (id.startsWith(prefix)) {
+                found.add(id);
+            }
+        }
+        List<String> result = new ArrayList<>(found);
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** Returns the first LENGTH hex digits of the Kth id of SORTED. */
+    private static String hexAt(MappedByteBuffer sorted, int k, int length) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        sorted.get(HEADER + k * Utils.UID_BYTES, id);
+        return Utils.sha1Hex(id, 0).substring(0, length);
+    }
+
+    /** Returns the unsorted ids. */
+    private static List<String> pending() {
+        List<String> ids = new ArrayList<>();
+        if (pendingFile().isFile()) {
+            byte[] data = Utils.readContents(pendingFile());
+            for (int at = 0; at + Utils.UID_BYTES <= data.length;
+                 at += Utils.UID_BYTES) {
+                ids.add(Utils.sha1Hex(data, at));
+            }
+        }
+        return ids;
+    }
+
+    /** Returns FILE memory-mapped. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                    ch.size());
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("corrupt commit index");
+            }
+            return buf;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Merges the unsorted ids into the sorted file. */
+    private static void compact() {
+        TreeSet<String> ids = new TreeSet<>(pending());
+        MappedByteBuffer sorted = map(sortedFile());
+        int count = sorted.getInt(8);
+        for (int k = 0; k < count; k += 1) {
+            ids.add(hexAt(sorted, k, Utils.UID_LENGTH));
+        }
+        write(ids);
+    }
+
+    /** Builds the index from the commits in Main.committingArea. */
+    static void rebuild() {
+        write(new TreeSet<>(Utils.plainFilenamesIn(Main.committingArea)));
+    }
+
+    /** Replaces the index with the sorted file holding IDS. */
+    private static void write(TreeSet<String> ids) {
+        Main.graphArea.mkdir();
+        File tmp = Durability.tempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                for (String id : ids) {
+                    out.write(Utils.sha1Bytes(id));
+                }
+            }
+            Durability.install(tmp, sortedFile());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pendingFile().delete();
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Properties;
+import java.util.Set;
+
+/** Repository settings, kept as a properties file in .gitlet/info/config
+ *  and changed with the config command.  The file is read once and then
+ *  cached until forget is called, which Main.run does after every
+ *  command.  Only the keys in KEYS may be set. */
+class Config {
+
+    /** Whether checkouts hard-link working files to read-only blobs in
+     *  Main.blobsArea instead of copying them. */
+    static final String HARDLINKS = "checkout.hardlinks";
+    /** Whether new loose blobs are stored deflated (the default) rather
+     *  than as they are.  Deflated blobs take less space, but checkouts
+     *  must inflate them through the heap; only blobs stored as they are
+     *  can be copied by the operating system with FileChannel.transferTo.
+     *  Set it to false when checkout speed matters more than space. */
+    static final String COMPRESSION = "core.compression";
+    /** When written files are forced to disk: one of Durability.LEVELS. */
+    static final String DURABILITY = "core.durability";
+    /** How many seconds an unreachable object is kept by gc after it was
+     *  written. */
+    static final String GC_GRACE = "gc.grace";
+    /** The keys that may be set. */
+    static final Set<String> KEYS = Set.of(HARDLINKS, COMPRESSION, DURABILITY,
+        GC_GRACE);
+    /** The keys whose values are booleans, true or false. */
+    static final Set<String> BOOLEANS = Set.of(HARDLINKS, COMPRESSION);
+
+    /** The settings, or null if not loaded. */
+    private static Properties settings;
+
+    /** Returns the settings file. */
+    private static File file() {
+        return Utils.join(Main.infoArea, "config");
+    }
+
+    /** Returns the settings, reading them if needed. */
+    private static synchronized Properties settings() {
+        if (settings == null) {
+            settings = new Properties();
+            if (file().isFile()) {
+                try (Reader in = new FileReader(file())) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+
+    /** Returns the value of KEY, or DEFAULT if it is not set. */
+    static String get(String key, String dflt) {
+        return settings().getProperty(key, dflt);
+    }
+
+    /** Returns true iff VALUE is a boolean value, true or false. */
+    static boolean isBoolean(String value) {
+        return value.equals("true") || value.equals("false");
+    }
+
+    /** Returns the value of KEY as a boolean, or DEFAULT if it is not
+     *  set or is neither true nor false. */
+    static boolean getBoolean(String key, boolean dflt) {
+        String value = get(key, Boolean.toString(dflt));
+        return isBoolean(value) ? value.equals("true") : dflt;
+    }
+
+    /** Sets KEY to VALUE and saves the settings. */
+    static synchronized void set(String key, String value) {
+        Properties props = settings();
+        props.setProperty(key, value);
+        StringWriter out = new StringWriter();
+        try {
+            props.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.write(file(), out.toString());
+    }
+
+    /** Forgets the cached settings so that they are read again. */
+    static synchronized void forget() {
+        settings = null;
+    }
+}
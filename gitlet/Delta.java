@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Copy/insert deltas between two versions of a file.  A delta is
+ *      BASE_LENGTH TARGET_LENGTH OP...
+ *  where the lengths are varints (see Utils.writeVarint) and each OP
+ *  is either
+ *      COPY OFFSET LENGTH      (copy LENGTH bytes of the base at OFFSET)
+ *      INSERT LENGTH BYTES...  (append the LENGTH literal BYTES)
+ *  Matches are found by indexing the base in BLOCK-byte blocks and
+ *  sliding a rolling hash over the target, so creating a delta takes
+ *  time linear in the sizes of both versions. */
+class Delta {
+
+    /** Op codes. */
+    private static final int COPY = 1, INSERT = 2;
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int BASE_MULT = 31;
+    /** BASE_MULT to the power BLOCK - 1. */
+    private static final int TOP_MULT;
+
+    static {
+        int p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= BASE_MULT;
+        }
+        TOP_MULT = p;
+    }
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.writeVarint(out, base.length);
+        Utils.writeVarint(out, target.length);
+
+        int nBlocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(nBlocks, 1) * 2);
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int b = nBlocks - 1; b >= 0; b -= 1) {
+            table[hash(base, b * BLOCK) & (size - 1)] = b * BLOCK;
+        }
+
+        int insertStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = nBlocks == 0 ? -1 : table[h & (size - 1)];
+            if (candidate >= 0 && matches(base, candidate, target, i)) {
+                int length = BLOCK;
+                while (candidate + length < base.length
+                        && i + length < target.length
+                        && base[candidate + length] == target[i + length]) {
+                    length += 1;
+                }
+                writeInsert(out, target, insertStart, i);
+                out.write(COPY);
+                Utils.writeVarint(out, candidate);
+                Utils.writeVarint(out, length);
+                i += length;
+                insertStart = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * TOP_MULT) * BASE_MULT
+                        + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        long baseLength = Utils.readVarint(delta, pos);
+        long targetLength = Utils.readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] result = new byte[(int) targetLength];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int offset = (int) Utils.readVarint(delta, pos);
+                int length = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(base, offset, result, n, length);
+                n += length;
+            } else if (op == INSERT) {
+                int length = (int) Utils.readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, length);
+                pos[0] += length;
+                n += length;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (n != targetLength) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * BASE_MULT + data[start + k];
+        }
+        return h;
+    }
+
+    /** Returns true iff the BLOCK bytes of BASE at B equal those of
+     *  TARGET at T. */
+    private static boolean matches(byte[] base, int b, byte[] target, int t) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[b + k] != target[t + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes an INSERT of TARGET[FROM..TO) to OUT, if nonempty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target,
+                                    int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            Utils.writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+}
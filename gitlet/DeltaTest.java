@@ -0,0 +1,72 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Tests of the copy/insert deltas of Delta.
+ *  @author Ricardo Mo
+ */
+public class DeltaTest {
+
+    /** Asserts that the delta from BASE to TARGET rebuilds TARGET, and
+     *  returns its length. */
+    private static int assertRoundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta.length;
+    }
+
+    /** Returns LENGTH random bytes from RANDOM. */
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void emptyVersions() {
+        byte[] text = "some text\n".getBytes(StandardCharsets.UTF_8);
+        assertRoundTrip(new byte[0], new byte[0]);
+        assertRoundTrip(new byte[0], text);
+        assertRoundTrip(text, new byte[0]);
+    }
+
+    @Test
+    public void smallEditsGiveSmallDeltas() {
+        Random random = new Random(17);
+        byte[] base = randomBytes(random, 1 << 16);
+        byte[] target = base.clone();
+        target[1000] ^= 1;
+        target[40000] ^= 1;
+        assertTrue(assertRoundTrip(base, target) < 200);
+        byte[] grown = Arrays.copyOf(base, base.length + 100);
+        assertTrue(assertRoundTrip(base, grown) < 300);
+        byte[] shrunk = Arrays.copyOfRange(base, 5000, base.length);
+        assertTrue(assertRoundTrip(base, shrunk) < 100);
+    }
+
+    @Test
+    public void randomEdits() {
+        Random random = new Random(29);
+        for (int trial = 0; trial < 100; trial += 1) {
+            byte[] base = randomBytes(random, random.nextInt(4096));
+            byte[] target = new byte[random.nextInt(4096)];
+            for (int i = 0; i < target.length; i += 1) {
+                target[i] = base.length > 0 && random.nextInt(8) != 0
+                    ? base[(i + trial) % base.length]
+                    : (byte) random.nextInt();
+            }
+            assertRoundTrip(base, target);
+        }
+    }
+
+    @Test
+    public void unrelatedVersions() {
+        Random random = new Random(43);
+        assertRoundTrip(randomBytes(random, 5000), randomBytes(random, 3000));
+    }
+}
@@ -0,0 +1,304 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line diffs.  A file's contents are split into Lines, each a range of
+ *  the contents' bytes ending after a newline or at the end, and equal
+ *  lines of all the files being compared are given the same number, so
+ *  that the diff compares ints rather than text and no line is copied.
+ *
+ *  The diff is Myers' O(ND) algorithm in its linear-space form: the
+ *  middle snake of the edit graph is found by searching from both ends
+ *  at once, and the halves on either side are diffed in turn.  Common
+ *  prefixes and suffixes are removed first.  Where the number of edits
+ *  passes TOO_EXPENSIVE, the furthest-reaching path found so far is used
+ *  as the split point instead, as GNU diff does, so that the time stays
+ *  near linear for very different inputs at the cost of a diff that may
+ *  not be minimal. */
+class Diff {
+
+    /** The lines of a file's contents. */
+    static class Lines {
+        /** The contents. */
+        final byte[] data;
+        /** START[k] is the offset of line K in DATA; START[size()] is
+         *  DATA.length. */
+        final int[] start;
+        /** IDS[k] is the number of line K; equal lines have equal
+         *  numbers. */
+        int[] ids;
+
+        /** The lines of DATA. */
+        Lines(byte[] data) {
+            this.data = data;
+            int n = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    n += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                n += 1;
+            }
+            start = new int[n + 1];
+            int k = 1;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && k < n) {
+                    start[k] = i + 1;
+                    k += 1;
+                }
+            }
+            start[n] = data.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return start.length - 1;
+        }
+    }
+
+    /** A region in which two files differ: lines [START1, END1) of the
+     *  first are replaced by lines [START2, END2) of the second. */
+    static class Hunk {
+        final int start1, end1, start2, end2;
+
+        Hunk(int start1, int end1, int start2, int end2) {
+            this.start1 = start1;
+            this.end1 = end1;
+            this.start2 = start2;
+            this.end2 = end2;
+        }
+    }
+
+    /** A range of bytes, compared by contents. */
+    private static class Slice {
+        final byte[] data;
+        final int from, to, hash;
+
+        Slice(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            int h = 1;
+            for (int i = from; i < to; i += 1) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            Slice other = (Slice) obj;
+            return hash == other.hash && Arrays.equals(data, from, to,
+                    other.data, other.from, other.to);
+        }
+    }
+
+    /** Number of edits after which a split point need not be optimal. */
+    private static final int TOO_EXPENSIVE = 1024;
+
+    /** Numbers the lines of FILES so that equal lines, in any of them,
+     *  have equal numbers. */
+    static void number(Lines... files) {
+        HashMap<Slice, Integer> numbers = new HashMap<>();
+        for (Lines file : files) {
+            file.ids = new int[file.size()];
+            for (int k = 0; k < file.size(); k += 1) {
+                Slice line = new Slice(file.data, file.start[k],
+                        file.start[k + 1]);
+                Integer id = numbers.putIfAbsent(line, numbers.size());
+                file.ids[k] = id == null ? numbers.size() - 1 : id;
+            }
+        }
+    }
+
+    /** Returns the hunks in which A and B, numbered together, differ, in
+     *  order. */
+    static List<Hunk> diff(Lines a, Lines b) {
+        return new Diff(a.ids, b.ids).hunks();
+    }
+
+    /** The line numbers of the two files. */
+    private final int[] a, b;
+    /** Which lines of A and of B are not matched. */
+    private final boolean[] changedA, changedB;
+    /** The furthest X reached on each diagonal, searching forward and
+     *  backward.  Diagonal K is at index K + B.length + 1. */
+    private final int[] fd, bd;
+
+    /** A diff of the line numbers A and B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        changedA = new boolean[a.length];
+        changedB = new boolean[b.length];
+        fd = new int[a.length + b.length + 3];
+        bd = new int[a.length + b.length + 3];
+    }
+
+    /** Returns the hunks of the diff. */
+    private List<Hunk> hunks() {
+        ArrayDeque<int[]> work = new ArrayDeque<>();
+        work.push(new int[] {0, a.length, 0, b.length});
+        while (!work.isEmpty()) {
+            int[] range = work.pop();
+            int xoff = range[0], xlim = range[1], yoff = range[2],
+                ylim = range[3];
+            while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+                xoff += 1;
+                yoff += 1;
+            }
+            while (xlim > xoff && ylim > yoff
+                   && a[xlim - 1] == b[ylim - 1]) {
+                xlim -= 1;
+                ylim -= 1;
+            }
+            if (xoff == xlim) {
+                Arrays.fill(changedB, yoff, ylim, true);
+            } else if (yoff == ylim) {
+                Arrays.fill(changedA, xoff, xlim, true);
+            } else {
+                int[] mid = split(xoff, xlim, yoff, ylim);
+                if ((mid[0] == xoff && mid[1] == yoff)
+                    || (mid[0] == xlim && mid[1] == ylim)) {
+                    Arrays.fill(changedA, xoff, xlim, true); /* No progress. */
+                    Arrays.fill(changedB, yoff, ylim, true);
+                    continue;
+                }
+                work.push(new int[] {mid[0], xlim, mid[1], ylim});
+                work.push(new int[] {xoff, mid[0], yoff, mid[1]});
+            }
+        }
+        List<Hunk> result = new ArrayList<>();
+        for (int i = 0, j = 0; i < a.length || j < b.length;) {
+            if (i < a.length && j < b.length && !changedA[i] && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i, j0 = j;
+            while (i < a.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < b.length && changedB[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(i0, i, j0, j));
+        }
+        return result;
+    }
+
+    /** Returns a point {X, Y} on a least-cost path (or, if that is too
+     *  expensive to find, on a good one) from (XOFF, YOFF) to (XLIM,
+     *  YLIM), strictly between them, where the prefixes and suffixes of
+     *  the two ranges differ. */
+    private int[] split(int xoff, int xlim, int yoff, int ylim) {
+        int off = b.length + 1;
+        int dmin = xoff - ylim, dmax = xlim - yoff;
+        int fmid = xoff - yoff, bmid = xlim - ylim;
+        int fmin = fmid, fmax = fmid, bmin = bmid, bmax = bmid;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        fd[off + fmid] = xoff;
+        bd[off + bmid] = xlim;
+        for (int c = 1;; c += 1) {
+            if (fmin > dmin) {
+                fmin -= 1;
+                fd[off + fmin - 1] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fmax += 1;
+                fd[off + fmax + 1] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int tlo = fd[off + d - 1], thi = fd[off + d + 1];
+                int x = tlo >= thi ? tlo + 1 : thi;
+                int y = x - d;
+                while (x < xlim && y < ylim && a[x] == b[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                fd[off + d] = x;
+                if (odd && bmin <= d && d <= bmax && bd[off + d] <= x) {
+                    return new int[] {x, y};
+                }
+            }
+            if (bmin > dmin) {
+                bmin -= 1;
+                bd[off + bmin - 1] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bmax += 1;
+                bd[off + bmax + 1] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int tlo = bd[off + d - 1], thi = bd[off + d + 1];
+                int x = tlo < thi ? tlo : thi - 1;
+                int y = x - d;
+                while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                bd[off + d] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[off + d]) {
+                    return new int[] {x, y};
+                }
+            }
+            if (c >= TOO_EXPENSIVE) {
+                return bestSplit(xoff, xlim, yoff, ylim, fmin, fmax, bmin,
+                        bmax);
+            }
+        }
+    }
+
+    /** Returns the end of the forward or backward path, among those on
+     *  diagonals FMIN..FMAX and BMIN..BMAX, that has got furthest. */
+    private int[] bestSplit(int xoff, int xlim, int yoff, int ylim,
+                            int fmin, int fmax, int bmin, int bmax) {
+        int off = b.length + 1;
+        int fxybest = -1, fxbest = 0;
+        for (int d = fmax; d >= fmin; d -= 2) {
+            int x = Math.min(fd[off + d], xlim), y = x - d;
+            if (ylim < y) {
+                x = ylim + d;
+                y = ylim;
+            }
+            if (fxybest < x + y) {
+                fxybest = x + y;
+                fxbest = x;
+            }
+        }
+        int bxybest = Integer.MAX_VALUE, bxbest = 0;
+        for (int d = bmax; d >= bmin; d -= 2) {
+            int x = Math.max(xoff, bd[off + d]), y = x - d;
+            if (y < yoff) {
+                x = yoff + d;
+                y = yoff;
+            }
+            if (x + y < bxybest) {
+                bxybest = x + y;
+                bxbest = x;
+            }
+        }
+        if ((xlim + ylim) - bxybest < fxybest - (xoff + yoff)) {
+            return new int[] {fxbest, fxybest - fxbest};
+        }
+        return new int[] {bxbest, bxybest - bxbest};
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Three-way line merges.  The base version of a file is diffed against
+ *  ours and against theirs, and the hunks of the two diffs are taken in
+ *  order of their place in the base.  Hunks that overlap or touch are
+ *  grouped.  A group changed on one side only takes that side's lines, a
+ *  group changed in the same way on both sides takes them once, and any
+ *  other group is a conflict, written as
+ *      <<<<<<< HEAD
+ *      OUR LINES=======
+ *      THEIR LINES>>>>>>>
+ *  Lines outside the groups are the same in all three versions.  The
+ *  result is written straight from the three versions' bytes. */
+class Diff3 {
+
+    /** Conflict markers. */
+    private static final byte[]
+        OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
+        SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8),
+        THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Writes the merge of the changes from BASE to OURS and from BASE to
+     *  THEIRS to OUT, and returns true iff it has conflicts. */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs,
+                         OutputStream out) throws IOException {
+        Diff.Lines o = new Diff.Lines(base), a = new Diff.Lines(ours),
+            b = new Diff.Lines(theirs);
+        Diff.number(o, a, b);
+        List<Diff.Hunk> hunksA = Diff.diff(o, a), hunksB = Diff.diff(o, b);
+        boolean conflict = false;
+        int ia = 0, ib = 0;
+        int deltaA = 0, deltaB = 0; /* Lines added minus lines removed by
+                                     * the hunks already passed. */
+        int copied = 0;             /* Lines of A already written. */
+        while (ia < hunksA.size() || ib < hunksB.size()) {
+            boolean fromA = ib == hunksB.size() || (ia < hunksA.size()
+                && hunksA.get(ia).start1 <= hunksB.get(ib).start1);
+            int lo = (fromA ? hunksA.get(ia) : hunksB.get(ib)).start1;
+            int hi = lo;
+            int loA = lo + deltaA, loB = lo + deltaB;
+            boolean changedA = false, changedB = false;
+            while (true) {
+                if (ia < hunksA.size() && hunksA.get(ia).start1 <= hi) {
+                    Diff.Hunk h = hunksA.get(ia);
+                    hi = Math.max(hi, h.end1);
+                    deltaA += (h.end2 - h.start2) - (h.end1 - h.start1);
+                    changedA = true;
+                    ia += 1;
+                } else if (ib < hunksB.size()
+                           && hunksB.get(ib).start1 <= hi) {
+                    Diff.Hunk h = hunksB.get(ib);
+                    hi = Math.max(hi, h.end1);
+                    deltaB += (h.end2 - h.start2) - (h.end1 - h.start1);
+                    changedB = true;
+                    ib += 1;
+                } else {
+                    break;
+                }
+            }
+            int hiA = hi + deltaA, hiB = hi + deltaB;
+            write(out, a, copied, loA);
+            if (!changedB) {
+                write(out, a, loA, hiA);
+            } else if (!changedA || Arrays.equals(a.ids, loA, hiA,
+                                                  b.ids, loB, hiB)) {
+                write(out, b, loB, hiB);
+            } else {
+                out.write(OURS);
+                write(out, a, loA, hiA);
+                out.write(SEPARATOR);
+                write(out, b, loB, hiB);
+                out.write(THEIRS);
+                conflict = true;
+            }
+            copied = hiA;
+        }
+        write(out, a, copied, a.size());
+        return conflict;
+    }
+
+    /** Writes OURS and THEIRS to OUT as a single conflict. */
+    static void conflict(byte[] ours, byte[] theirs, OutputStream out)
+        throws IOException {
+        out.write(OURS);
+        out.write(ours);
+        out.write(SEPARATOR);
+        out.write(theirs);
+        out.write(THEIRS);
+    }
+
+    /** Writes lines [FROM, TO) of FILE to OUT. */
+    private static void write(OutputStream out, Diff.Lines file, int from,
+                              int to) throws IOException {
+        out.write(file.data, file.start[from],
+                  file.start[to] - file.start[from]);
+    }
+}
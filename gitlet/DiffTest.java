@@ -0,0 +1,139 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Tests of the line diffs of Diff and the three-way merges of Diff3.
+ *  @author Ricardo Mo
+ */
+public class DiffTest {
+
+    /** Returns the lines of S. */
+    private static Diff.Lines lines(String s) {
+        return new Diff.Lines(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the hunks of the diff from A to B, each written as
+     *  "START1,END1,START2,END2". */
+    private static List<String> hunks(String a, String b) {
+        Diff.Lines x = lines(a), y = lines(b);
+        Diff.number(x, y);
+        List<String> result = new ArrayList<>();
+        for (Diff.Hunk h : Diff.diff(x, y)) {
+            result.add(h.start1 + "," + h.end1 + "," + h.start2 + ","
+                       + h.end2);
+        }
+        return result;
+    }
+
+    /** Returns the text rebuilt from A by replacing each hunk of the diff
+     *  from A to B by its lines of B, checking that the lines between
+     *  hunks are as many in A as in B. */
+    private static String patch(String a, String b) {
+        Diff.Lines x = lines(a), y = lines(b);
+        Diff.number(x, y);
+        StringBuilder out = new StringBuilder();
+        int copied1 = 0, copied2 = 0;
+        for (Diff.Hunk h : Diff.diff(x, y)) {
+            assertEquals("unchanged lines", h.start1 - copied1,
+                         h.start2 - copied2);
+            out.append(a, x.start[copied1], x.start[h.start1]);
+            out.append(b, y.start[h.start2], y.start[h.end2]);
+            copied1 = h.end1;
+            copied2 = h.end2;
+        }
+        assertEquals("unchanged lines", x.size() - copied1,
+                     y.size() - copied2);
+        out.append(a, x.start[copied1], a.length());
+        return out.toString();
+    }
+
+    /** Returns the three-way merge of OURS and THEIRS against BASE, and
+     *  checks that it reports a conflict iff CONFLICT. */
+    private static String merge(String base, String ours, String theirs,
+                                boolean conflict) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("conflict", conflict,
+                     Diff3.merge(base.getBytes(StandardCharsets.UTF_8),
+                                 ours.getBytes(StandardCharsets.UTF_8),
+                                 theirs.getBytes(StandardCharsets.UTF_8),
+                                 out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void splitsLines() {
+        assertEquals(0, lines("").size());
+        assertEquals(2, lines("a\nb\n").size());
+        assertEquals(2, lines("a\nb").size());
+        assertEquals(3, lines("\n\n\n").size());
+    }
+
+    @Test
+    public void hunks() {
+        assertEquals(List.of(), hunks("a\nb\n", "a\nb\n"));
+        assertEquals(List.of("1,2,1,2"), hunks("a\nb\nc\n", "a\nx\nc\n"));
+        assertEquals(List.of("0,1,0,0"), hunks("a\nb\n", "b\n"));
+        assertEquals(List.of("2,2,2,3"), hunks("a\nb\n", "a\nb\nc\n"));
+        assertEquals(List.of("0,1,0,1", "2,3,2,3"),
+                     hunks("a\nb\nc\n", "x\nb\ny\n"));
+        assertEquals(List.of("1,2,1,2"), hunks("a\nb", "a\nb\n"));
+        assertEquals(List.of("0,0,0,2"), hunks("", "a\nb\n"));
+    }
+
+    @Test
+    public void hunksRebuildTheTarget() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            StringBuilder a = new StringBuilder(), b = new StringBuilder();
+            for (int k = random.nextInt(40); k > 0; k -= 1) {
+                a.append((char) ('a' + random.nextInt(4))).append('\n');
+            }
+            for (int k = random.nextInt(40); k > 0; k -= 1) {
+                b.append((char) ('a' + random.nextInt(4))).append('\n');
+            }
+            assertEquals(b.toString(), patch(a.toString(), b.toString()));
+        }
+    }
+
+    @Test
+    public void mergesChangesOnEitherSide() throws IOException {
+        String base = "a\nb\nc\nd\ne\n";
+        assertEquals("A\nb\nc\nd\nE\n",
+                     merge(base, "A\nb\nc\nd\ne\n", "a\nb\nc\nd\nE\n",
+                           false));
+        assertEquals("a\nb\nc\nd\ne\nf\n",
+                     merge(base, base, "a\nb\nc\nd\ne\nf\n", false));
+        assertEquals("b\nc\nd\ne\n",
+                     merge(base, "b\nc\nd\ne\n", base, false));
+        assertEquals("a\nX\nc\nd\ne\n",
+                     merge(base, "a\nX\nc\nd\ne\n", "a\nX\nc\nd\ne\n",
+                           false));
+    }
+
+    @Test
+    public void conflicts() throws IOException {
+        assertEquals("a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\n",
+                     merge("a\nb\nc\n", "a\nX\nc\n", "a\nY\nc\n", true));
+        assertEquals("<<<<<<< HEAD\nX\nb\n=======\na\nY\n>>>>>>>\n",
+                     merge("a\nb\n", "X\nb\n", "a\nY\n", true));
+        assertEquals("a\n<<<<<<< HEAD\n=======\nY\n>>>>>>>\nc\n",
+                     merge("a\nb\nc\n", "a\nc\n", "a\nY\nc\n", true));
+    }
+
+    @Test
+    public void wholeFileConflict() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Diff3.conflict("x\n".getBytes(StandardCharsets.UTF_8),
+                       "y\n".getBytes(StandardCharsets.UTF_8), out);
+        assertEquals("<<<<<<< HEAD\nx\n=======\ny\n>>>>>>>\n",
+                     out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardCopyOption.*;
+
+/** Getting what commands write onto the disk.  Objects (blobs, trees,
+ *  commits and packs) and refs (branches and HEAD) are written to a
+ *  temporary file and renamed into place, so that none is ever seen half
+ *  written.  Updating a ref is the commit point: the objects written
+ *  before it are forced to disk first, so that a ref never names a commit
+ *  whose objects a crash could lose.  How often the disk is forced is set
+ *  by Config.DURABILITY:
+ *      none    never.  A crash of the machine, not merely of gitlet, can
+ *              lose recent objects and ref updates.  For bulk loads that
+ *              can be redone.
+ *      batch   (the default) the objects written since the last commit
+ *              point are forced together, then their directories, before
+ *              a ref is updated and when a command ends; then the ref.
+ *      full    as batch, but also each object before it is renamed into
+ *              place, so that even a crash in the middle of a command
+ *              leaves no damaged object behind.
+ *  The config, the staging area, the stat cache and the commit indexes
+ *  are written the same way, through write or tempFile and install, or
+ *  are appended to in place and passed to written, and are forced with
+ *  the objects.  With batch, an object renamed into place but not yet
+ *  forced when the machine crashes can be left damaged, though no ref
+ *  names it; fsck reports such objects. */
+class Durability {
+
+    /** The values of Config.DURABILITY. */
+    static final String NONE = "none", BATCH = "batch", FULL = "full";
+    /** The allowed values of Config.DURABILITY. */
+    static final Set<String> LEVELS = Set.of(NONE, BATCH, FULL);
+
+    /** Files written since the last commit point, and their
+     *  directories. */
+    private static final LinkedHashSet<File> files = new LinkedHashSet<>(),
+        dirs = new LinkedHashSet<>();
+
+    /** Returns the durability level. */
+    static String level() {
+        String level = Config.get(Config.DURABILITY, BATCH);
+        return LEVELS.contains(level) ? level : BATCH;
+    }
+
+    /** Writes CONTENTS, each a byte[] or a String as for
+     *  Utils.writeContents, to FILE through a temporary file, replacing
+     *  FILE if it exists. */
+    static void write(File file, Object... contents) {
+        File tmp = tempFile();
+        Utils.writeContents(tmp, contents);
+        install(tmp, file);
+    }
+
+    /** Returns a new empty temporary file in the repository, for a file
+     *  too large to build in memory to be written to and then passed to
+     *  install. */
+    static File tempFile() {
+        Main.infoArea.mkdir();
+        try {
+            return File.createTempFile("tmp-", null, Main.infoArea);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Renames the finished temporary file TMP to TARGET, which is on the
+     *  same file system, replacing it if it exists. */
+    static void install(File tmp, File target) {
+        String level = level();
+        try {
+            if (level.equals(FULL)) {
+                force(tmp);
+            }
+            Files.move(tmp.toPath(), target.toPath(), REPLACE_EXISTING,
+                    ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (level.equals(FULL)) {
+            forceDirectory(target.getParentFile());
+        } else if (level.equals(BATCH)) {
+            record(target);
+        }
+    }
+
+    /** Records that FILE, an object or an index appended to, was written
+     *  in place and must be forced at the next commit point. */
+    static void written(File file) {
+        if (!level().equals(NONE)) {
+            record(file);
+        }
+    }
+
+    /** Adds FILE to those to force at the next commit point. */
+    private static synchronized void record(File file) {
+        files.add(file);
+        dirs.add(file.getAbsoluteFile().getParentFile());
+    }
+
+    /** Makes REF, a branch or HEAD, hold CONTENTS, after forcing every
+     *  object written so far. */
+    static void updateRef(File ref, String contents) {
+        sync();
+        write(ref, contents);
+        sync();
+    }
+
+    /** Forces the files written since the last call, then their
+     *  directories. */
+    static synchronized void sync() {
+        try {
+            for (File file : files) {
+                if (file.exists()) {
+                    force(file);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (File dir : dirs) {
+            forceDirectory(dir);
+        }
+        files.clear();
+        dirs.clear();
+    }
+
+    /** Forces the contents of FILE, which may be read-only, to disk. */
+    private static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /** Forces the entries of directory DIR to disk, where the platform
+     *  allows it. */
+    private static void forceDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            /* Not supported for directories on some platforms. */
+        }
+    }
+}
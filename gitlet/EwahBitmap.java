@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/** Run-length compressed bitmaps in the style of EWAH.  The bits are
+ *  grouped into 64-bit words and stored as a sequence of
+ *      MARKER LITERAL...
+ *  groups, where MARKER describes a run of clean words (all zeros or all
+ *  ones) followed by a number of literal words stored as they are.  Bit 0
+ *  of MARKER is the value of the run's bits, bits 1-32 are the number of
+ *  words in the run and bits 33-63 are the number of literal words that
+ *  follow.  Sets of ancestors are mostly long runs of ones, so they
+ *  compress to a few words. */
+class EwahBitmap {
+
+    /** Magic number at the start of an encoded bitmap. */
+    private static final int MAGIC = 0x45574148;
+    /** Largest run length and literal count one marker can hold. */
+    private static final long MAX_RUN = 0xffffffffL, MAX_LITERALS = 0x7fffffffL;
+
+    /** Returns BITS compressed. */
+    static byte[] encode(BitSet bits) {
+        long[] words = bits.toLongArray();
+        ArrayList<Long> out = new ArrayList<>();
+        int i = 0;
+        while (i < words.length) {
+            boolean runBit = words[i] == -1L;
+            long run = 0;
+            while (i < words.length && run < MAX_RUN
+                   && words[i] == (runBit ? -1L : 0L)) {
+                run += 1;
+                i += 1;
+            }
+            int literalsStart = i;
+            while (i < words.length && i - literalsStart < MAX_LITERALS
+                   && words[i] != 0L && words[i] != -1L) {
+                i += 1;
+            }
+            long literals = i - literalsStart;
+            out.add((runBit ? 1L : 0L) | (run << 1) | (literals << 33));
+            for (int k = literalsStart; k < i; k += 1) {
+                out.add(words[k]);
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8 + 8 * out.size());
+        buf.putInt(MAGIC);
+        buf.putInt(words.length);
+        for (long word : out) {
+            buf.putLong(word);
+        }
+        return buf.array();
+    }
+
+    /** Returns the bitmap compressed in DATA.  Throws
+     *  IllegalArgumentException if DATA is not a whole encoded bitmap, as
+     *  when its writing was cut short. */
+    static BitSet decode(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (data.length < 8 || data.length % 8 != 0
+            || buf.getInt() != MAGIC) {
+            throw new IllegalArgumentException("corrupt bitmap");
+        }
+        long[] words = new long[buf.getInt()];
+        int n = 0;
+        while (buf.hasRemaining()) {
+            long marker = buf.getLong();
+            long fill = (marker & 1L) != 0 ? -1L : 0L;
+            long run = (marker >>> 1) & MAX_RUN;
+            long literals = marker >>> 33;
+            if (run + literals > words.length - n
+                || literals > buf.remaining() / 8) {
+                throw new IllegalArgumentException("corrupt bitmap");
+            }
+            for (long k = 0; k < run; k += 1) {
+                words[n] = fill;
+                n += 1;
+            }
+            for (long k = 0; k < literals; k += 1) {
+                words[n] = buf.getLong();
+                n += 1;
+            }
+        }
+        if (n != words.length) {
+            throw new IllegalArgumentException("corrupt bitmap");
+        }
+        return BitSet.valueOf(words);
+    }
+}
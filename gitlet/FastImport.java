@@ -0,0 +1,353 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Bulk loading of history from a stream, for the fast-import command.
+ *  The stream is a sequence of the commands
+ *
+ *      blob                    Stores the data that follows as a blob.
+ *      mark :N
+ *      data LENGTH
+ *      <LENGTH bytes>
+ *
+ *      commit BRANCH           Makes a commit on BRANCH.  Its parent is
+ *      mark :N                 FROM if given, and otherwise the last commit
+ *      time DATE               of the stream on BRANCH, the existing
+ *      data LENGTH             branch, or the initial commit, in that
+ *      <LENGTH bytes>          order.  MERGE is its second parent.  Its
+ *      from REF                files are those of its parent with each
+ *      merge REF               M line storing blob REF as PATH and each
+ *      M REF PATH              D line removing PATH.  DATE defaults to
+ *      D PATH                  now, and the data is the message.
+ *
+ *      reset BRANCH            Points BRANCH at REF.
+ *      from REF
+ *
+ *      done                    Ends the stream (optional).
+ *
+ *  where a REF is either a mark :N set earlier in the stream or a full
+ *  id, "mark" lines are optional, blank lines are ignored and a single
+ *  newline may follow each data block.  Objects are written as they are
+ *  read, but branches are updated only when the whole stream has been
+ *  read, so a stream with an error leaves them as they were.  Each commit
+ *  updates the Tree of its parent, so only the marks and the root tree
+ *  ids of the branches are kept in memory for the whole stream.  The ids
+ *  and messages of new commits are added to the CommitIndex and the
+ *  MessageIndex WINDOW commits at a time, and the objects written are
+ *  forced to disk (see Durability) every WINDOW objects, so neither those
+ *  nor the files waiting to be forced grow with the stream. */
+class FastImport {
+
+    /** Number of commits whose ids and messages are held before they are
+     *  indexed, and of objects written between forcing them to disk. */
+    private static final int WINDOW = 1024;
+
+    /** The stream being read. */
+    private final InputStream in;
+    /** Number of the line being read, for error messages. */
+    private int lineNumber;
+    /** The line read ahead by peekLine, or null. */
+    private String pending;
+    /** Ids of the objects named by marks. */
+    private final HashMap<Integer, String> marks = new HashMap<>();
+    /** New tips of the branches changed by the stream. */
+    private final LinkedHashMap<String, String> tips = new LinkedHashMap<>();
+    /** Root trees of the new tips of TIPS. */
+    private final HashMap<String, String> tipTrees = new HashMap<>();
+    /** Ids of the commits made and not yet indexed. */
+    private final List<String> commitIds = new ArrayList<>();
+    /** Messages of the commits made and not yet indexed, by id. */
+    private final LinkedHashMap<String, String> messages =
+        new LinkedHashMap<>();
+    /** Numbers of blobs and commits imported. */
+    private int blobs, commits;
+    /** Number of objects written since they were last forced to disk. */
+    private int unsynced;
+
+    /** A reader of the stream IN. */
+    FastImport(InputStream in) {
+        this.in = new BufferedInputStream(in, 1 << 16);
+    }
+
+    /** Reads the whole stream, then updates the branches and prints a
+     *  summary. */
+    void run() throws IOException {
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.isEmpty()) {
+                continue;
+            } else if (line.equals("blob")) {
+                readBlob();
+            } else if (line.startsWith("commit ")) {
+                readCommit(branchName(line.substring(7)));
+            } else if (line.startsWith("reset ")) {
+                String branch = branchName(line.substring(6));
+                String from = field("from ");
+                if (from == null) {
+                    throw error("reset needs a from line");
+                }
+                tips.put(branch, commitRef(from));
+                tipTrees.remove(branch);
+            } else if (line.equals("done")) {
+                break;
+            } else {
+                throw error("unknown command '%s'", line);
+            }
+        }
+        indexCommits();
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            Durability.updateRef(Utils.join(Main.GITLET, tip.getKey()),
+                    tip.getValue());
+        }
+        Main.storeTipBitmaps();
+        System.out.println("Imported " + blobs + " blobs, " + commits
+            + " commits, " + tips.size() + " branches.");
+    }
+
+    /** Adds the commits made since the last call to the indexes. */
+    private void indexCommits() {
+        if (!commitIds.isEmpty()) {
+            CommitIndex.addAll(commitIds);
+            MessageIndex.addAll(messages);
+            commitIds.clear();
+            messages.clear();
+        }
+    }
+
+    /** Notes that an object was written, forcing the objects written so
+     *  far to disk every WINDOW objects. */
+    private void written() {
+        unsynced += 1;
+        if (unsynced >= WINDOW) {
+            Durability.sync();
+            unsynced = 0;
+        }
+    }
+
+    /** Reads the rest of a blob command. */
+    private void readBlob() throws IOException {
+        Integer mark = readMark();
+        byte[] contents = readData();
+        String id = Utils.sha1(contents);
+        BlobStore.write(id, contents);
+        blobs += 1;
+        written();
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    /** Reads the rest of a commit command on BRANCH. */
+    private void readCommit(String branch) throws IOException {
+        Integer mark = readMark();
+        String time = field("time ");
+        String message = new String(readData(), StandardCharsets.UTF_8);
+        String from = field("from ");
+        String merge = field("merge ");
+        String parent = from != null ? commitRef(from) : tip(branch);
+        String parent2 = merge != null ? commitRef(merge) : null;
+        String tree = tipTrees.get(branch);
+        if (tree == null || !parent.equals(tips.get(branch))) {
+            tree = Commit.load(parent).getTree();
+        }
+        HashMap<String, String> changes = new HashMap<>();
+        for (String line = peekLine(); line != null
+                 && (line.startsWith("M ") || line.startsWith("D "));
+             line = peekLine()) {
+            readLine();
+            if (line.startsWith("D ")) {
+                changes.put(line.substring(2), null);
+            } else {
+                int space = line.indexOf(' ', 2);
+                if (space < 0) {
+                    throw error("malformed M line");
+                }
+                changes.put(line.substring(space + 1),
+                        blobRef(line.substring(2, space)));
+            }
+        }
+        Commit commit = new Commit(null, parent, parent2, time, message,
+                null, -1);
+        if (time == null) {
+            commit.setDate();
+        }
+        tree = Tree.update(tree, changes);
+        commit.setTree(tree);
+        String id = commit.store();
+        CommitGraph.get().add(commit);
+        commits += 1;
+        written();
+        commitIds.add(id);
+        messages.put(id, message);
+        if (commitIds.size() >= WINDOW) {
+            indexCommits();
+        }
+        tips.put(branch, id);
+        tipTrees.put(branch, tree);
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    /** Returns the commit the next commit on BRANCH follows by default. */
+    private String tip(String branch) {
+        if (tips.containsKey(branch)) {
+            return tips.get(branch);
+        }
+        File ref = Utils.join(Main.GITLET, branch);
+        if (ref.isFile()) {
+            return Utils.readContentsAsString(ref);
+        }
+        CommitGraph graph = CommitGraph.get();
+        int r = graph.row(Main.getHEADId());
+        while (graph.parent(r) != CommitGraph.NONE) {
+            r = graph.parent(r);
+        }
+        return graph.id(r);
+    }
+
+    /** Returns NAME if it can name a branch, as Main.isBranchName decides,
+     *  so that a name taken by an entry of Main.GITLET is rejected before
+     *  any object is written. */
+    private String branchName(String name) {
+        if (!Main.isBranchName(name)) {
+            throw error("bad branch name '%s'", name);
+        }
+        return name;
+    }
+
+    /** Returns the id of the object REF. */
+    private String ref(String ref) {
+        if (ref.startsWith(":")) {
+            try {
+                String id = marks.get(Integer.parseInt(ref.substring(1)));
+                if (id != null) {
+                    return id;
+                }
+            } catch (NumberFormatException excp) {
+                /* Reported below. */
+            }
+            throw error("unknown mark %s", ref);
+        }
+        if (!ref.matches("[0-9a-f]{40}")) {
+            throw error("bad object reference '%s'", ref);
+        }
+        return ref;
+    }
+
+    /** Returns the id of the commit REF. */
+    private String commitRef(String ref) {
+        String id = ref(ref);
+        if (!Utils.join(Main.committingArea, id).isFile()) {
+            throw error("%s is not a commit", ref);
+        }
+        return id;
+    }
+
+    /** Returns the id of the blob REF. */
+    private String blobRef(String ref) {
+        String id = ref(ref);
+        if (!BlobStore.contains(id)) {
+            throw error("%s is not a blob", ref);
+        }
+        return id;
+    }
+
+    /** Reads an optional mark line and returns its number, or null. */
+    private Integer readMark() throws IOException {
+        String mark = field("mark :");
+        if (mark == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(mark);
+        } catch (NumberFormatException excp) {
+            throw error("bad mark '%s'", mark);
+        }
+    }
+
+    /** Reads the next line if it starts with PREFIX and returns the rest
+     *  of it, and otherwise returns null. */
+    private String field(String prefix) throws IOException {
+        String line = peekLine();
+        if (line == null || !line.startsWith(prefix)) {
+            return null;
+        }
+        readLine();
+        return line.substring(prefix.length());
+    }
+
+    /** Reads a data block. */
+    private byte[] readData() throws IOException {
+        String header = readLine();
+        if (header == null || !header.startsWith("data ")) {
+            throw error("expected a data line");
+        }
+        int length;
+        try {
+            length = Integer.parseInt(header.substring(5));
+        } catch (NumberFormatException excp) {
+            throw error("bad data length");
+        }
+        byte[] data = in.readNBytes(length);
+        if (data.length != length) {
+            throw error("stream ends inside a data block");
+        }
+        for (byte b : data) {
+            if (b == '\n') {
+                lineNumber += 1;
+            }
+        }
+        in.mark(1);
+        if (in.read() != '\n') {
+            in.reset();
+        }
+        return data;
+    }
+
+    /** Returns the next line without consuming it, or null at the end. */
+    private String peekLine() throws IOException {
+        if (pending == null) {
+            pending = nextLine();
+        }
+        return pending;
+    }
+
+    /** Reads the next line, or returns null at the end of the stream. */
+    private String readLine() throws IOException {
+        String line = peekLine();
+        pending = null;
+        return line;
+    }
+
+    /** Reads a line from the stream. */
+    private String nextLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c = in.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            line.write(c);
+            c = in.read();
+        }
+        lineNumber += 1;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns an error about the line being read, described by MSG and
+     *  ARGS as for String.format. */
+    private GitletException error(String msg, Object... args) {
+        return Utils.error("fast-import: line %d: %s", lineNumber,
+                String.format(msg, args));
+    }
+}
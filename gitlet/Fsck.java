@@ -0,0 +1,286 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A check of the whole object store.  Every blob, commit and tree is
+ *  read and hashed again, and compared with the id it is stored under,
+ *  and every link between objects is checked:
+ *      the parents of each commit are stored commits,
+ *      the tree of each commit, and the children of each tree, are stored
+ *          trees,
+ *      the blobs of each tree and of each commit that keeps its own file
+ *          table are stored blobs,
+ *      each branch names a stored commit, HEAD names a branch, and each
+ *          staged blob is stored.
+ *  Reading a blob resolves its chain of deltas or its chunks, so those are
+ *  checked too.  Commits stored with Java serialization, and those
+ *  rewritten by migrate (listed in Main.migratedCommits), are not named
+ *  by the hash of their contents, so only their links are checked.
+ *
+ *  The objects are listed by one thread into a bounded queue, from which
+ *  one worker per core takes them, so that memory does not grow with the
+ *  size of the store.  Problems are printed as soon as they are found, in
+ *  no particular order, one per line.  At the end, the number of objects
+ *  and bytes checked and the rates at which they were checked are
+ *  printed. */
+class Fsck {
+
+    /** Kinds of object. */
+    private static final int BLOB = 0, COMMIT = 1, TREE = 2;
+    /** Names of the kinds of object. */
+    private static final String[] KINDS = {"blob", "commit", "tree"};
+    /** Number of objects the queue holds per worker. */
+    private static final int QUEUE_PER_WORKER = 64;
+    /** Size of the buffer used when hashing blobs. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** An object to check: its KIND and ID.  An item with a null ID tells
+     *  a worker to stop. */
+    private static class Item {
+        final int kind;
+        final String id;
+
+        Item(int kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+    }
+
+    /** Where problems and the summary are printed. */
+    private final PrintStream out;
+    /** Number of workers. */
+    private final int workers;
+    /** The objects waiting to be checked. */
+    private final BlockingQueue<Item> queue;
+    /** Ids of commits not named by the hash of their contents. */
+    private final Set<String> migrated = new HashSet<>();
+    /** Numbers of objects and bytes checked and of problems found. */
+    private final AtomicLong objects = new AtomicLong(),
+        bytes = new AtomicLong(), problems = new AtomicLong();
+
+    /** A check that prints to OUT. */
+    Fsck(PrintStream out) {
+        this.out = out;
+        workers = Runtime.getRuntime().availableProcessors();
+        queue = new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER);
+    }
+
+    /** Checks the repository and prints what was found, returning the
+     *  number of problems. */
+    long run() {
+        long start = System.nanoTime();
+        if (Main.migratedCommits.isFile()) {
+            for (String id : Utils.readContentsAsString(Main.migratedCommits)
+                     .split("\n")) {
+                migrated.add(id);
+            }
+        }
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i += 1) {
+            threads[i] = new Thread(this::work, "fsck-" + i);
+            threads[i].start();
+        }
+        try {
+            try {
+                listObjects();
+            } finally {
+                for (int i = 0; i < workers; i += 1) {
+                    queue.put(new Item(BLOB, null));
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+        } catch (InterruptedException excp) {
+            throw new GitletException("Interrupted.");
+        }
+        checkRefs();
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        double megabytes = bytes.get() / 1e6;
+        out.printf("Checked %d objects, %.1f MB in %.2f s"
+                   + " (%.1f MB/s, %.0f objects/s).%n", objects.get(),
+                   megabytes, seconds, megabytes / seconds,
+                   objects.get() / seconds);
+        return problems.get();
+    }
+
+    /** Puts every stored object in the queue. */
+    private void listObjects() throws InterruptedException {
+        HashSet<String> blobs = new HashSet<>();
+        for (String id : BlobStore.looseIds()) {
+            blobs.add(id);
+            queue.put(new Item(BLOB, id));
+        }
+        for (PackFile pack : BlobStore.packs()) {
+            for (int k = 0; k < pack.size(); k += 1) {
+                String id = pack.idAt(k);
+                if (blobs.add(id)) {
+                    queue.put(new Item(BLOB, id));
+                }
+            }
+        }
+        for (String id : filesIn(Main.committingArea)) {
+            queue.put(new Item(COMMIT, id));
+        }
+        for (String id : filesIn(Main.treesArea)) {
+            queue.put(new Item(TREE, id));
+        }
+    }
+
+    /** Returns the names of the plain files in DIR, none if it is
+     *  missing. */
+    private static List<String> filesIn(File dir) {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        return names == null ? List.of() : names;
+    }
+
+    /** Checks the objects taken from the queue until told to stop. */
+    private void work() {
+        try {
+            while (true) {
+                Item item = queue.take();
+                if (item.id == null) {
+                    return;
+                }
+                try {
+                    switch (item.kind) {
+                    case BLOB:
+                        checkBlob(item.id);
+                        break;
+                    case COMMIT:
+                        checkCommit(item.id);
+                        break;
+                    default:
+                        checkTree(item.id);
+                        break;
+                    }
+                } catch (RuntimeException excp) {
+                    report("unreadable " + KINDS[item.kind] + " " + item.id
+                           + ": " + excp.getMessage());
+                }
+                objects.incrementAndGet();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Prints the problem MESSAGE. */
+    private void report(String message) {
+        problems.incrementAndGet();
+        out.println(message);
+    }
+
+    /** Checks that blob ID hashes to ID. */
+    private void checkBlob(String id) {
+        MessageDigest md = Utils.sha1Digest();
+        byte[] buf = new byte[BUFFER_SIZE];
+        long length = 0;
+        try (InputStream in = BlobStore.open(id)) {
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                length += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        bytes.addAndGet(length);
+        if (!Utils.sha1Hex(md.digest(), 0).equals(id)) {
+            report("hash mismatch in blob " + id);
+        }
+    }
+
+    /** Checks that commit ID hashes to ID, unless it is not named by its
+     *  hash, and that its parents, tree or blobs are stored. */
+    private void checkCommit(String id) {
+        byte[] data = Utils.readContents(Utils.join(Main.committingArea, id));
+        bytes.addAndGet(data.length);
+        Commit commit;
+        if (CommitCodec.isSerialized(data)) {
+            commit = Utils.deserialize(data, Commit.class);
+        } else {
+            if (!migrated.contains(id) && !Utils.sha1(data).equals(id)) {
+                report("hash mismatch in commit " + id);
+            }
+            commit = CommitCodec.decode(id, data);
+        }
+        for (String parent : new String[] {commit.getParent(),
+                                           commit.getParent2()}) {
+            if (parent != null
+                && !Utils.join(Main.committingArea, parent).isFile()) {
+                report("missing commit " + parent + ", parent of commit "
+                       + id);
+            }
+        }
+        if (commit.getStoredTree() != null) {
+            if (!Tree.file(commit.getStoredTree()).isFile()) {
+                report("missing tree " + commit.getStoredTree()
+                       + " of commit " + id);
+            }
+        } else if (commit.getFiles() != null) {
+            checkBlobs(commit.getFiles().values(), "commit " + id);
+        }
+    }
+
+    /** Checks that tree ID hashes to ID and that its children and blobs
+     *  are stored. */
+    private void checkTree(String id) {
+        byte[] data = Utils.readContents(Tree.file(id));
+        bytes.addAndGet(data.length);
+        if (!Utils.sha1(data).equals(id)) {
+            report("hash mismatch in tree " + id);
+            return;
+        }
+        for (String child : Tree.children(id)) {
+            if (!Tree.file(child).isFile()) {
+                report("missing tree " + child + " in tree " + id);
+            }
+        }
+        checkBlobs(Tree.blobs(id), "tree " + id);
+    }
+
+    /** Checks that the blobs IDS, used by WHERE, are stored. */
+    private void checkBlobs(Iterable<String> ids, String where) {
+        for (String blob : ids) {
+            if (!BlobStore.contains(blob)) {
+                report("missing blob " + blob + " in " + where);
+            }
+        }
+    }
+
+    /** Checks the branches, HEAD and the staging area. */
+    private void checkRefs() {
+        for (String branch : filesIn(Main.GITLET)) {
+            String contents = Utils.readContentsAsString(
+                    Utils.join(Main.GITLET, branch));
+            if (branch.equals("HEAD")) {
+                if (!Utils.join(Main.GITLET, contents).isFile()) {
+                    report("HEAD names missing branch " + contents);
+                }
+            } else if (!Utils.join(Main.committingArea, contents).isFile()) {
+                report("missing commit " + contents + " of branch "
+                       + branch);
+            }
+        }
+        for (Map<String, String> staged : List.of(Staging.additions(),
+                                                  Staging.removals())) {
+            for (Map.Entry<String, String> e : staged.entrySet()) {
+                if (!BlobStore.contains(e.getValue())) {
+                    report("missing blob " + e.getValue() + " of staged file "
+                           + e.getKey());
+                }
+            }
+        }
+    }
+}
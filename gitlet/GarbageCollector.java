@@ -0,0 +1,369 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Removal of the objects that nothing refers to any more, such as the
+ *  commits left behind by rm-branch and reset and the trees and blobs
+ *  that only they used.
+ *
+ *  The mark phase finds every object still in use, starting from
+ *      the branch tips,
+ *      the blobs staged for addition or removal and those recorded in
+ *          StatCache, which add may stage without storing them again,
+ *      and every object written within the grace period (Config.GC_GRACE
+ *          seconds, DEFAULT_GRACE if unset), so that the objects of a
+ *          command running meanwhile are never taken from under it.
+ *  The commits reachable from these are found in the CommitGraph; the
+ *  commits are then read, and their trees walked, on all cores.  Marking
+ *  a blob also marks the blobs it is stored in terms of (the base of a
+ *  delta and the chunks of a manifest).  Any object that cannot be read
+ *  stops gc before anything is deleted.
+ *
+ *  The sweep phase deletes the loose commits, trees and blobs not marked
+ *  and writes the marked objects of any pack that holds unmarked ones into
+ *  a new pack, replacing it.  A packed object's age is that of its pack.
+ *  Temporary files older than the grace period, left by commands that
+ *  were interrupted, are deleted too.  If commits were removed, the commit
+ *  graph, its bitmaps and the commit id and message indexes, which would
+ *  still list them, are rebuilt. */
+class GarbageCollector {
+
+    /** Grace period used if Config.GC_GRACE is unset: two weeks. */
+    static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** Objects last modified at or before this time, in milliseconds,
+     *  are old enough to be removed. */
+    private final long cutoff;
+    /** The threads of the mark and sweep phases. */
+    private final ForkJoinPool pool;
+    /** The ids of the objects in use. */
+    private final Set<String> commits = ConcurrentHashMap.newKeySet(),
+        trees = ConcurrentHashMap.newKeySet(),
+        blobs = ConcurrentHashMap.newKeySet();
+    /** Numbers of objects and bytes removed, and of commits removed. */
+    private final AtomicLong objects = new AtomicLong(),
+        bytes = new AtomicLong(), commitsRemoved = new AtomicLong();
+
+    /** A collector that keeps objects written in the last GRACE
+     *  seconds. */
+    GarbageCollector(long grace) {
+        cutoff = System.currentTimeMillis() - grace * 1000;
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Returns the grace period set in the configuration, in seconds. */
+    static long configuredGrace() {
+        try {
+            return Long.parseLong(Config.get(Config.GC_GRACE,
+                    Long.toString(DEFAULT_GRACE)));
+        } catch (NumberFormatException excp) {
+            return DEFAULT_GRACE;
+        }
+    }
+
+    /** Removes the unreachable objects. */
+    void run() {
+        try {
+            mark();
+            sweep();
+        } finally {
+            pool.shutdown();
+        }
+        if (commitsRemoved.get() > 0) {
+            rebuildIndexes();
+        }
+    }
+
+    /** Returns the number of objects removed. */
+    long objectsRemoved() {
+        return objects.get();
+    }
+
+    /** Returns the number of bytes freed. */
+    long bytesFreed() {
+        return bytes.get();
+    }
+
+    /** Returns true iff FILE was last modified before the grace
+     *  period. */
+    private boolean old(File file) {
+        return file.lastModified() <= cutoff;
+    }
+
+    /** Returns the names of the plain files in DIR, none if it is
+     *  missing. */
+    private static List<String> filesIn(File dir) {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        return names == null ? new ArrayList<>() : names;
+    }
+
+    /** Marks every object in use. */
+    private void mark() {
+        List<String> roots = Main.branchHeads();
+        List<String> youngTrees = new ArrayList<>(),
+            youngBlobs = new ArrayList<>();
+        for (String id : filesIn(Main.committingArea)) {
+            if (!old(Utils.join(Main.committingArea, id))) {
+                roots.add(id);
+            }
+        }
+        for (String id : filesIn(Main.treesArea)) {
+            if (!old(Tree.file(id))) {
+                youngTrees.add(id);
+            }
+        }
+        for (String id : BlobStore.looseIds()) {
+            for (File file : BlobStore.looseFiles(id)) {
+                if (!old(file)) {
+                    youngBlobs.add(id);
+                    break;
+                }
+            }
+        }
+        for (PackFile pack : BlobStore.packs()) {
+            if (!old(pack.getPackFile())) {
+                for (int k = 0; k < pack.size(); k += 1) {
+                    youngBlobs.add(pack.idAt(k));
+                }
+            }
+        }
+        youngBlobs.addAll(Staging.additions().values());
+        youngBlobs.addAll(Staging.removals().values());
+        youngBlobs.addAll(StatCache.ids());
+
+        CommitGraph graph = CommitGraph.get();
+        BitSet reachable = new BitSet(graph.size());
+        for (String id : roots) {
+            reachable.or(graph.ancestors(graph.row(id)));
+        }
+        for (int r = reachable.nextSetBit(0); r >= 0;
+             r = reachable.nextSetBit(r + 1)) {
+            commits.add(graph.id(r));
+        }
+        invoke(() -> commits.parallelStream().forEach(this::markCommit));
+        invoke(() -> youngTrees.parallelStream().forEach(this::markTree));
+        invoke(() -> youngBlobs.parallelStream().forEach(this::markBlob));
+    }
+
+    /** Marks the tree or blobs of commit ID. */
+    private void markCommit(String id) {
+        Commit commit = Commit.load(id);
+        if (commit.getStoredTree() != null) {
+            markTree(commit.getStoredTree());
+        } else if (commit.getFiles() != null) {
+            for (String blob : commit.getFiles().values()) {
+                markBlob(blob);
+            }
+        }
+    }
+
+    /** Marks tree ID and everything under it. */
+    private void markTree(String id) {
+        if (!trees.add(id)) {
+            return;
+        }
+        Tree.children(id).parallelStream().forEach(this::markTree);
+        for (String blob : Tree.blobs(id)) {
+            markBlob(blob);
+        }
+    }
+
+    /** Marks blob ID and the blobs it is stored in terms of. */
+    private void markBlob(String id) {
+        if (!blobs.add(id)) {
+            return;
+        }
+        for (String ref : BlobStore.references(id)) {
+            markBlob(ref);
+        }
+    }
+
+    /** Deletes the objects not marked. */
+    private void sweep() {
+        List<String> deadCommits = new ArrayList<>(),
+            deadTrees = new ArrayList<>(), deadBlobs = new ArrayList<>();
+        for (String id : filesIn(Main.committingArea)) {
+            if (!commits.contains(id)
+                && old(Utils.join(Main.committingArea, id))) {
+                deadCommits.add(id);
+            }
+        }
+        for (String id : filesIn(Main.treesArea)) {
+            if (!trees.contains(id) && old(Tree.file(id))) {
+                deadTrees.add(id);
+            }
+        }
+        for (String id : BlobStore.looseIds()) {
+            if (!blobs.contains(id)) {
+                deadBlobs.add(id);
+            }
+        }
+        invoke(() -> {
+            deadCommits.parallelStream().forEach(id -> {
+                if (delete(Utils.join(Main.committingArea, id))) {
+                    commitsRemoved.incrementAndGet();
+                }
+            });
+            deadTrees.parallelStream().forEach(id -> delete(Tree.file(id)));
+            deadBlobs.parallelStream().forEach(id -> {
+                long freed = BlobStore.deleteLoose(id);
+                if (freed > 0) {
+                    objects.incrementAndGet();
+                    bytes.addAndGet(freed);
+                }
+            });
+        });
+        sweepPacks();
+        sweepTemporaries(Main.blobsArea, Main.infoArea, Main.packsArea,
+                Main.stagingArea, Main.graphArea);
+    }
+
+    /** Deletes the object FILE, counting it, and returns true iff it was
+     *  deleted. */
+    private boolean delete(File file) {
+        long length = file.length();
+        if (!file.delete()) {
+            return false;
+        }
+        objects.incrementAndGet();
+        bytes.addAndGet(length);
+        return true;
+    }
+
+    /** Replaces the old packs holding unmarked blobs by a single pack of
+     *  their marked blobs. */
+    private void sweepPacks() {
+        List<PackFile> garbage = new ArrayList<>();
+        TreeMap<String, PackFile> kept = new TreeMap<>();
+        HashSet<String> dropped = new HashSet<>();
+        for (PackFile pack : BlobStore.packs()) {
+            if (!old(pack.getPackFile())) {
+                continue;
+            }
+            boolean clean = true;
+            for (int k = 0; k < pack.size() && clean; k += 1) {
+                clean = blobs.contains(pack.idAt(k));
+            }
+            if (clean) {
+                continue;
+            }
+            garbage.add(pack);
+            for (int k = 0; k < pack.size(); k += 1) {
+                String id = pack.idAt(k);
+                if (blobs.contains(id)) {
+                    kept.putIfAbsent(id, pack);
+                } else {
+                    dropped.add(id);
+                }
+            }
+        }
+        if (garbage.isEmpty()) {
+            return;
+        }
+        long before = 0;
+        for (PackFile pack : garbage) {
+            before += pack.getPackFile().length() + pack.getIdxFile().length();
+        }
+        long after = 0;
+        File replacement = null;
+        if (!kept.isEmpty()) {
+            PackFile written = PackFile.write(Main.packsArea,
+                    new ArrayList<>(kept.keySet()), new PackFile.Source() {
+                    @Override
+                    public byte type(String id) {
+                        PackFile pack = kept.get(id);
+                        return pack.typeAt(pack.find(id));
+                    }
+
+                    @Override
+                    public long copy(String id, OutputStream out)
+                        throws IOException {
+                        PackFile pack = kept.get(id);
+                        try (InputStream in = pack.streamAt(pack.find(id))) {
+                            return in.transferTo(out);
+                        }
+                    }
+                });
+            replacement = written.getIdxFile();
+            after = written.getPackFile().length() + replacement.length();
+            written.close();
+        }
+        BlobStore.reloadPacks();
+        Durability.sync(); /* The new pack must be on disk before the old
+                            * ones are deleted. */
+        for (PackFile pack : garbage) {
+            if (!pack.getIdxFile().equals(replacement)) {
+                pack.getIdxFile().delete();
+                pack.getPackFile().delete();
+            }
+        }
+        objects.addAndGet(dropped.size());
+        bytes.addAndGet(Math.max(0, before - after));
+    }
+
+    /** Deletes the temporary files in DIRS older than the grace period. */
+    private void sweepTemporaries(File... dirs) {
+        for (File dir : dirs) {
+            for (String name : filesIn(dir)) {
+                File file = Utils.join(dir, name);
+                if ((name.startsWith("tmp-") || name.endsWith(".tmp"))
+                    && old(file)) {
+                    long length = file.length();
+                    if (file.delete()) {
+                        bytes.addAndGet(length);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Rebuilds the indexes of commits after commits were removed. */
+    private void rebuildIndexes() {
+        Utils.join(Main.graphArea, "commit-graph").delete();
+        for (String name : filesIn(Utils.join(Main.graphArea, "bitmaps"))) {
+            Utils.join(Main.graphArea, "bitmaps", name).delete();
+        }
+        CommitGraph.reset();
+        CommitGraph.get().storeTips(Main.branchHeads());
+        CommitIndex.rebuild();
+        MessageIndex.rebuild();
+        if (Main.migratedCommits.isFile()) {
+            StringBuilder migrated = new StringBuilder();
+            for (String id : Utils.readContentsAsString(Main.migratedCommits)
+                     .split("\n")) {
+                if (!id.isEmpty()
+                    && Utils.join(Main.committingArea, id).isFile()) {
+                    migrated.append(id).append("\n");
+                }
+            }
+            Durability.write(Main.migratedCommits, migrated.toString());
+        }
+    }
+
+    /** Runs TASK in the pool and waits for it, passing on what it
+     *  throws. */
+    private void invoke(Runnable task) {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException excp) {
+            throw new GitletException("Interrupted.");
+        } catch (ExecutionException excp) {
+            throw excp.getCause() instanceof RuntimeException
+                ? (RuntimeException) excp.getCause()
+                : new IllegalArgumentException(excp.getCause());
+        }
+    }
+}
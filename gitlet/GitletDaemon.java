@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A long-running server that keeps the repository in the current
+ *  directory open in one JVM, so that the commit cache, the commit graph
+ *  and the pack indexes stay loaded between commands.  It listens on the
+ *  Unix-domain socket .gitlet/info/daemon.sock and runs one command per
+ *  connection, in the order they arrive.  A request is
+ *      ARGC ARG...
+ *  (an int, then writeUTF strings) and the reply is
+ *      STATUS LENGTH OUTPUT
+ *  where STATUS is the value of Main.run and OUTPUT is everything the
+ *  command printed.  The command "shutdown" stops the daemon.  Client is
+ *  the matching command-line program.
+ *
+ *  Like any other, each command run here holds the lock on
+ *  .gitlet/info/lock that Main.run takes, so gitlet commands run directly
+ *  meanwhile wait for it, and it for them.  At the start of each command
+ *  Main.run drops what is kept in memory (the staging area, the stat
+ *  cache and the pack list) if another process has changed it on disk. */
+class GitletDaemon {
+
+    /** Status returned for a command that failed unexpectedly. */
+    static final int CRASHED = 2;
+
+    /** Returns the address of the daemon of the repository in the current
+     *  directory. */
+    static UnixDomainSocketAddress address() {
+        return UnixDomainSocketAddress.of(
+                Utils.join(Main.infoArea, "daemon.sock").toPath());
+    }
+
+    /** Serves commands on address() until told to shut down. */
+    static void serve() throws IOException {
+        if (!Main.GITLET.exists()) {
+            Main.exitWithError("Not in an initialized Gitlet directory.");
+        }
+        File socket = address().getPath().toFile();
+        if (socket.exists()) {
+            try {
+                SocketChannel.open(address()).close();
+                Main.exitWithError("A gitlet daemon is already running.");
+            } catch (IOException excp) {
+                socket.delete(); /* Left behind by a daemon that died. */
+            }
+        }
+        Main.infoArea.mkdir();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            socket.deleteOnExit();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    /* The client went away; serve the next one. */
+                }
+            }
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Runs the command sent on CLIENT and sends back its status and
+     *  output.  Returns false iff the command was "shutdown". */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        boolean shutdown = args.length == 1 && args[0].equals("shutdown");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = shutdown ? 0 : execute(args, output);
+        DataOutputStream out =
+            new DataOutputStream(Channels.newOutputStream(client));
+        out.writeInt(status);
+        out.writeInt(output.size());
+        output.writeTo(out);
+        out.flush();
+        return !shutdown;
+    }
+
+    /** Runs the command ARGS with its output going to OUTPUT and returns
+     *  its status.  Unexpected exceptions are reported to the client rather
+     *  than ending the daemon. */
+    private static int execute(String[] args, ByteArrayOutputStream output) {
+        PrintStream stdout = System.out;
+        PrintStream capture =
+            new PrintStream(output, true, StandardCharsets.UTF_8);
+        System.setOut(capture);
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                System.out.println("A gitlet daemon is already running.");
+                return 1;
+            }
+            return Main.run(args);
+        } catch (IOException | RuntimeException excp) {
+            System.out.println("Internal error: " + excp);
+            return CRASHED;
+        } finally {
+            capture.flush();
+            System.setOut(stdout);
+        }
+    }
+}
@@ -2,12 +2,33 @@ package gitlet;
 
 import jdk.jshell.execution.Util;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.AlgorithmConstraints;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 import static java.nio.file.StandardCopyOption.*;
 
@@ -20,13 +41,144 @@ public class Main {
     public static final File stagingArea = new File(GITLET, "staging");
     public static final File committingArea = new File(GITLET, "committing");
     public static final File blobsArea = new File(GITLET, "blobs");
+    public static final File packsArea = new File(GITLET, "packs");
+    public static final File infoArea = new File(GITLET, "info");
+    public static final File graphArea = new File(GITLET, "graph");
+    public static final File treesArea = new File(GITLET, "trees");
+    public static final File migratedCommits = new File(infoArea, "migrated-commits");
     public static final File addition = new File(stagingArea, "addition");
     public static final File removal = new File(stagingArea, "removal");
     public static final File HEAD = new File(GITLET, "HEAD");
     public static final File MASTER = new File(GITLET, "master");
+    /** the entries of .gitlet that are not branches, which no branch may be named after */
+    public static final Set<String> RESERVED_NAMES = Set.of("HEAD", "staging", "committing", "blobs", "packs", "info",
+            "graph", "trees");
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String[] args) throws IOException {
+        if(args.length == 1 && args[0].equals("--batch")){
+            System.exit(runBatch(new BufferedReader(new InputStreamReader(System.in))));
+        }
+        run(args); // gitlet exits with 0 even when the command fails
+    }
+
+    /** run the command ARGS, returning 0 if it succeeded and 1 if it failed with an error, whose message is printed */
+    public static int run(String[] args) throws IOException {
+        boolean daemon = args.length > 0 && args[0].equals("daemon"); // the daemon takes the lock for each command it runs
+        FileChannel lock = daemon ? null : lockRepository();
+        boolean succeeded = false;
+        try{
+            Staging.refresh(); // another process may have changed what a daemon or batch run still holds in memory
+            StatCache.refresh();
+            BlobStore.refreshPacks();
+            dispatch(args);
+            succeeded = true;
+            return 0;
+        }catch(GitletException e){
+            if(e.getMessage() != null && !e.getMessage().equals("")){
+                System.out.println(e.getMessage());
+            }
+            return 1;
+        }finally{
+            if(succeeded){
+                Durability.sync(); // the blobs staged must be on disk before the staging area names them
+                Staging.flush(); // the staging area is written once per command
+            }else{
+                Staging.forget();
+            }
+            StatCache.flush(); // what it records holds whether or not the command succeeded
+            Durability.sync(); // and the staging area and stat cache just written
+            Config.forget();
+            if(lock != null){
+                lock.close(); // releases the lock
+            }
+        }
+    }
+
+    /** wait until no other command, in this or another process, is using the repository in the current directory
+     *  and return the channel holding the lock, or null if there is no repository yet */
+    private static FileChannel lockRepository() throws IOException {
+        if(!GITLET.isDirectory()){
+            return null;
+        }
+        infoArea.mkdir();
+        FileChannel lock = FileChannel.open(new File(infoArea, "lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try{
+            lock.lock();
+        }catch(IOException | RuntimeException e){
+            lock.close();
+            throw e;
+        }
+        return lock;
+    }
+
+    /** run the commands read one per line from INPUT in this process, printing the status of each to standard error
+     *  as "LINE STATUS", and return 1 if any of them failed and 0 otherwise */
+    public static int runBatch(BufferedReader input) throws IOException {
+        int failed = 0;
+        int lineNumber = 0;
+        for(String line = input.readLine(); line != null; line = input.readLine()){
+            lineNumber += 1;
+            List<String> words = splitCommand(line);
+            if(words.isEmpty()){
+                continue;
+            }
+            int status;
+            try{
+                status = run(words.toArray(new String[0]));
+            }catch(RuntimeException e){
+                System.out.println("Internal error: " + e);
+                status = GitletDaemon.CRASHED;
+            }
+            System.out.flush();
+            System.err.println(lineNumber + " " + status);
+            if(status != 0){
+                failed += 1;
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    /** split the command LINE into words at blanks; a word in double quotes may contain blanks, and \" or \\ in it stand for " or \ */
+    public static List<String> splitCommand(String line){
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            if(quoted){
+                if(c == '\\' && i + 1 < line.length()){
+                    i++;
+                    word.append(line.charAt(i));
+                }else if(c == '"'){
+                    quoted = false;
+                }else{
+                    word.append(c);
+                }
+            }else if(Character.isWhitespace(c)){
+                if(word != null){
+                    words.add(word.toString());
+                    word = null;
+                }
+            }else{
+                if(word == null){
+                    word = new StringBuilder();
+                }
+                if(c == '"'){
+                    quoted = true;
+                }else{
+                    word.append(c);
+                }
+            }
+        }
+        if(word != null){
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static void dispatch(String[] args) throws IOException {
         if(args.length == 0){
             exitWithError("Please enter a command");
         }
@@ -62,6 +214,9 @@ public class Main {
                 if (args.length==2) {
                     find(args[1]);
                     break;
+                } else if (args.length==3 && (args[1].equals("--substring") || args[1].equals("--regex"))) {
+                    findMatching(args[1], args[2]);
+                    break;
                 } else {
                     exitWithError("Incorrect operands");
                 }
@@ -81,6 +236,30 @@ public class Main {
                 }
                 merge(args[1]);
                 break;
+            case "repack":
+                repack(args);
+                break;
+            case "gc":
+                gc(args);
+                break;
+            case "fsck":
+                fsck(args);
+                break;
+            case "migrate":
+                migrate(args);
+                break;
+            case "fast-import":
+                fastImport(args);
+                break;
+            case "config":
+                config(args);
+                break;
+            case "daemon":
+                if(args.length != 1){
+                    exitWithError("Incorrect operands.");
+                }
+                GitletDaemon.serve();
+                break;
             default:
                 exitWithError("No command with that name exists.");
         }
@@ -97,77 +276,80 @@ public class Main {
         stagingArea.mkdir();
         committingArea.mkdir();
         blobsArea.mkdir();
+        treesArea.mkdir();
         //the first
         //.createNewFile();
         //Utils.writeObject(addition ,new HashMap<String, String>());
         Commit initial = new Commit();
-        String sha1_initial = Utils.sha1(Utils.serialize(initial));
-        initial.setSha1Code(sha1_initial);
-        File initial_commit = new File(committingArea, sha1_initial);
-        Utils.writeContents(initial_commit, Utils.serialize(initial));
+        String sha1_initial = initial.store();
+        recordCommit(initial);
         HEAD.createNewFile();
         MASTER.createNewFile();
-        Utils.writeContents(MASTER, sha1_initial);
-        Utils.writeContents(HEAD, "master");
+        Durability.updateRef(MASTER, sha1_initial);
+        Durability.updateRef(HEAD, "master");
+        storeTipBitmaps();
 
     }
 
+    /** stage the files named by args[1..], or every file in the working directory for "add ." */
     public static void addFileToStaged(String[] args) throws IOException {
         if(!GITLET.exists()){
             exitWithError("Not in an initialized Gitlet directory.");
         }
-        if(args.length != 2){
+        if(args.length < 2){
             exitWithError("Incorrect operands.");
         }
-        if(!GITLET.exists()){
-            exitWithError("Not in an initialized Gitlet directory.");
-        }
-        String filename = args[1];
-        File path = new File(CWD, filename);
-        if(!path.exists()){
-            exitWithError("File does not exist.");
+        List<String> filenames;
+        if(args.length == 2 && args[1].equals(".")){
+            filenames = Utils.plainFilenamesIn(CWD);
+        }else{
+            filenames = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(args).subList(1, args.length)));
         }
-        if(!addition.exists()){
-            addition.createNewFile();
-            HashMap<String, String> emptyAdd = new HashMap<>();
-            Utils.writeObject(addition ,emptyAdd);
+        for(String filename : filenames){
+            if(!new File(CWD, filename).exists()){
+                exitWithError("File does not exist.");
+            }
         }
-        String sha1_content = Utils.sha1(Utils.readContents(path)); // sha1-hash of the content;
-        HashMap currStaged = Utils.readObject(addition, HashMap.class);//files staged in staging area;
         Commit curr = getHEAD();// the commit stored in HEAD, e.g. the current commit
-        if(currStaged.containsKey(filename) && currStaged.get(filename) != sha1_content){//check if the file is already staged
-            currStaged.replace(filename, sha1_content);
-            File blob = new File(blobsArea, sha1_content);
-            Utils.writeContents(blob, Utils.readContents(path));
-        }
-        if(curr.getFiles() != null) {
-            if (curr.getFiles().containsKey(filename) && curr.getFiles().get(filename).equals(sha1_content)) {
-                currStaged.remove(filename, sha1_content);
+        List<String> ids;
+        if(filenames.size() == 1){
+            ids = List.of(storeWorkingFile(filenames.get(0), curr));
+        }else{ // hash and store the files on all cores, in the shared pool so that no threads are started per add, then stage them together
+            try{
+                ids = ForkJoinPool.commonPool().submit(() -> filenames.parallelStream()
+                        .map(filename -> storeWorkingFile(filename, curr))
+                        .collect(Collectors.toList())).get();
+            }catch(InterruptedException e){
+                throw new GitletException("Interrupted.");
+            }catch(ExecutionException e){
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                        : new IllegalArgumentException(e.getCause());
             }
-            else{
-                currStaged.put(filename, sha1_content);
-                File blob = new File(blobsArea, sha1_content);
-                Utils.writeContents(blob, Utils.readContents(path));
-            }
-        } else{
-            currStaged.put(filename, sha1_content);
-            File blob = new File(blobsArea, sha1_content);
-            Utils.writeContents(blob, Utils.readContents(path));
         }
-        if(removal.exists()){ //if the file is currently staged in removal, remove it from the removal stage
-            HashMap removalStage = Utils.readObject(removal, HashMap.class);
-            if(removalStage.containsKey(filename)){
-                removalStage.remove(filename);
-                Utils.writeObject(removal, removalStage);
-            }
-            if(Utils.readObject(removal, HashMap.class).size() == 0){// if staging area has 0 element, delete the staging file
-                removal.delete();
-            }
+        for(int i = 0; i < filenames.size(); i++){
+            stageFile(filenames.get(i), ids.get(i), curr);
         }
-        Utils.writeObject(addition, currStaged);
-        if(currStaged.isEmpty()){
-            addition.delete();
+    }
+
+    /** store the working file FILENAME as a blob, as a delta against its version in CURR if it has one, and return its id */
+    private static String storeWorkingFile(String filename, Commit curr){
+        File path = new File(CWD, filename);
+        String base = curr.getFiles() != null ? curr.getFiles().get(filename) : null;// the committed version, stored blobs are deltas against it
+        String sha1_content = StatCache.hash(filename, file -> BlobStore.writeFile(file, base)); // hash and store the content in one pass, unless the file is unchanged since it was last hashed
+        if(!BlobStore.contains(sha1_content)){ // hashed before, but never stored
+            sha1_content = BlobStore.writeFile(path, base);
         }
+        return sha1_content;
+    }
+
+    /** stage FILENAME, whose contents are blob SHA1_CONTENT, for addition unless it is the version in CURR */
+    private static void stageFile(String filename, String sha1_content, Commit curr){
+        if(curr.getFiles() != null && sha1_content.equals(curr.getFiles().get(filename))) {
+            Staging.unadd(filename); //the committed version needs no staging
+        } else{
+            Staging.add(filename, sha1_content); //each change to the staging area is one journal record
+        }
+        Staging.unremove(filename); //if the file is currently staged in removal, remove it from the removal stage
     }
 
     public static void makeCommit(String[] args) throws IOException {
@@ -186,67 +368,125 @@ public class Main {
         if(!GITLET.exists()){
             exitWithError("Not in an initialized Gitlet directory.");
         }
-        if(!addition.exists() && !removal.exists()){
+        if(Staging.isEmpty()){
             exitWithError("No changes added to the commit.");
         }
 
         String message = args[1]; //commit message
         Commit curr = getHEAD();//the Head commit
+        HashMap<String, String> changes = new HashMap<>(Staging.additions());//map of stagedAdd Files
+        for(String key: Staging.removals().keySet()){ //untrack files in removal stage
+            changes.put(key, null);
+        }
+        /** only the tree nodes holding the changed files are rewritten; the rest are shared with the parent */
+        commitTree(curr, message, Tree.update(curr.getTree(), changes), null);
+        /** clean the staging area */
+        Staging.clear();
+    }
+
+    /** store a commit of TREE with MESSAGE whose parents are CURR and PARENT2 (null if none), and move the current
+     *  branch to it; returns its id */
+    private static String commitTree(Commit curr, String message, String tree, String parent2){
         Commit newCommit = new Commit(curr.getSha1Code()); //create a new commit inherited from its parent, the HEAD;
         newCommit.setDate();//set new Date
         newCommit.setMessage(message);
-        if(!addition.exists()){
-            addition.createNewFile();
-            HashMap<String, String> emptyAdd = new HashMap<>();
-            Utils.writeObject(addition ,emptyAdd);
-        }
-        HashMap stagedAddList = Utils.readObject(addition, HashMap.class);//map of stagedAdd Files
-        if(curr.getFiles() != null){//when the parent commit is not initial commit
-            HashMap committedList = (HashMap) curr.getFiles().clone();
-            for(String key : (Set<String>) committedList.keySet()){
-                if(!stagedAddList.containsKey(key)){
-                    stagedAddList.put(key, committedList.get(key));
-                }
-            }
-        }
-        if(removal.exists()){ //untrack files in removal stage
-            HashMap StagedRemoveList = Utils.readObject(removal, HashMap.class);
-            for(String key: (Set<String>) StagedRemoveList.keySet()){
-                if(stagedAddList.containsKey(key)){
-                    stagedAddList.remove(key);
-                }
-            }
-        }
-        newCommit.setFiles(stagedAddList);
+        newCommit.setTree(tree);
+        newCommit.setParent2(parent2);
         /** store the commit into a file*/
-        String sha1_commit = Utils.sha1(Utils.serialize(newCommit));
-        newCommit.setSha1Code(sha1_commit);
-        File currCommit = new File(committingArea, sha1_commit);
-        currCommit.createNewFile();
-        Utils.writeObject(currCommit, newCommit);
-        Utils.writeContents(Utils.join(GITLET, Utils.readContentsAsString(HEAD)), sha1_commit); // update the head commit in current branch
-        /** clean the staging area */
-        addition.delete();
-        removal.delete();
+        String sha1_commit = newCommit.store();
+        recordCommit(newCommit);
+        Durability.updateRef(Utils.join(GITLET, Utils.readContentsAsString(HEAD)), sha1_commit); // update the head commit in current branch, the point at which the commit is made
+        storeTipBitmaps();
+        return sha1_commit;
     }
+
+    /** print the history of HEAD, newest first.  ARGS may add "-n N" to print at most N commits, "--since DATE" and
+     *  "--until DATE" to print only the commits made in that interval, and "--all-parents" to follow the second parents
+     *  of merges too rather than only first parents ("--first-parent", the default).  Commits are loaded only as they
+     *  are reached, so the walk stops as soon as N commits are printed or the output is closed.  Dates are only filtered,
+     *  never used to stop the walk, since a parent may carry a later date than its child (clock skew, imported history) */
     public static void gitlog(String[] args){
         if(!GITLET.exists()){
             exitWithError("Not in an initialized Gitlet directory.");
         }
-        if(args.length != 1){
-            exitWithError("Incorrect operands.");
+        long limit = Long.MAX_VALUE;
+        Instant since = null, until = null;
+        boolean firstParent = true;
+        for(int i = 1; i < args.length; i++){
+            String option = args[i];
+            if(option.equals("--first-parent") || option.equals("--all-parents")){
+                firstParent = option.equals("--first-parent");
+                continue;
+            }
+            if(i + 1 == args.length){
+                exitWithError("Incorrect operands.");
+            }
+            i++;
+            if(option.equals("-n")){
+                try{
+                    limit = Long.parseLong(args[i]);
+                }catch(NumberFormatException e){
+                    exitWithError("Incorrect operands.");
+                }
+            }else if(option.equals("--since")){
+                since = parseDate(args[i]);
+            }else if(option.equals("--until")){
+                until = parseDate(args[i]);
+            }else{
+                exitWithError("Incorrect operands.");
+            }
         }
-        if(!GITLET.exists()){
-            exitWithError("Not in an initialized Gitlet directory.");
+        CommitGraph graph = CommitGraph.get();
+        /** commits are taken newest generation first, so that a commit comes after every commit that descends from it */
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> graph.generation(a) != graph.generation(b)
+                ? Integer.compare(graph.generation(b), graph.generation(a)) : Integer.compare(b, a));
+        BitSet seen = new BitSet();
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false); // one large buffer instead of a write per line
+        queue.add(graph.row(getHEADId()));
+        long printed = 0;
+        while(!queue.isEmpty() && printed < limit){
+            int row = queue.poll();
+            if(seen.get(row)){
+                continue;
+            }
+            seen.set(row);
+            Commit commit = Commit.load(graph.id(row));
+            Instant time = since != null || until != null ? commit.getInstant() : null; // commits with dates that do not parse are kept
+            if(time == null || ((since == null || !time.isBefore(since)) && (until == null || !time.isAfter(until)))){
+                commit.printLog(out);
+                printed++;
+                if(printed % 1024 == 0 && (out.checkError() || System.out.checkError())){
+                    break; // the reader is gone, as after "log | head"
+                }
+            }
+            if(graph.parent(row) != CommitGraph.NONE){
+                queue.add(graph.parent(row));
+            }
+            if(!firstParent && graph.parent2(row) != CommitGraph.NONE){
+                queue.add(graph.parent2(row));
+            }
         }
-        Commit curr = getHEAD(); //The HEAD commit
-        File parents = null;
-        while(curr.getParent()!=null){
-            curr.printLog();
-            parents = new File(committingArea,curr.getParent());
-            curr=Utils.readObject(parents, Commit.class);
+        out.flush();
+    }
+
+    /** the instant DATE names, given as yyyy-MM-dd, "yyyy-MM-dd HH:mm:ss" (both in the local time zone) or in the
+     *  format log prints */
+    private static Instant parseDate(String date){
+        try{
+            return ZonedDateTime.parse(date, Commit.DATE_FORMAT).toInstant();
+        }catch(DateTimeParseException e){
+            /* try the other formats */
+        }
+        try{
+            return LocalDateTime.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")).atZone(ZoneId.systemDefault()).toInstant();
+        }catch(DateTimeParseException e){
+            /* try the other formats */
+        }
+        try{
+            return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        }catch(DateTimeParseException e){
+            throw Utils.error("Invalid date.");
         }
-        curr.printLog();
     }
 
     public static void globalLog() {
@@ -255,24 +495,40 @@ public class Main {
         }
         List<String> allCommit = gitlet.Utils.plainFilenamesIn(committingArea);
         Collections.sort(allCommit);
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
         for (String id : allCommit){
-            gitlet.Commit temp = gitlet.Utils.readObject(gitlet.Utils.join(committingArea, id), gitlet.Commit.class);
-            temp.printLog();
+            gitlet.Commit temp = Commit.load(id);
+            temp.printLog(out);
         }
+        out.flush();
     }
 
     public static void find (String message){
         if(!GITLET.exists()){
             exitWithError("Not in an initialized Gitlet directory.");
         }
-        List<String> allCommit = gitlet.Utils.plainFilenamesIn(committingArea);
-        List<String> list = new ArrayList<>();
-        for (String id : allCommit) {
-            gitlet.Commit commit = gitlet.Utils.readObject(gitlet.Utils.join(committingArea, id), gitlet.Commit.class);
-            if (message.equals(commit.getMessage())){
-                list.add(id);
-            }
+        printFound(MessageIndex.exact(message)); // looked up in the message index, without reading every commit
+    }
+
+    /** print the ids of the commits whose message contains PATTERN (MODE "--substring") or has a match of the regular
+     *  expression PATTERN (MODE "--regex") */
+    public static void findMatching(String mode, String pattern){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(mode.equals("--substring")){
+            printFound(MessageIndex.substring(pattern));
+            return;
         }
+        try{
+            printFound(MessageIndex.regex(Pattern.compile(pattern)));
+        }catch(PatternSyntaxException e){
+            exitWithError("Invalid pattern.");
+        }
+    }
+
+    /** print the commit ids LIST found by find, one per line */
+    private static void printFound(Collection<String> list){
         if (list.isEmpty()){
             exitWithError("Found no commit with that message.");
         } else {
@@ -293,33 +549,14 @@ public class Main {
         }
         String filename = args[1];
         Commit curr = getHEAD(); //the HEAD commit
-        if (addition.exists()) {
-            HashMap currStaged = Utils.readObject(addition, HashMap.class);
-            if (!currStaged.containsKey(filename) && (curr.getFiles() == null || !curr.getFiles().containsKey(filename))) {
-                exitWithError("No reason to remove the file.");
-            }
-            if (currStaged.containsKey(filename)) {
-                currStaged.remove(filename);
-                Utils.writeObject(addition, currStaged);
-            }
-            if(Utils.readObject(addition, HashMap.class).size() == 0){ // if staging area has 0 element, delete the staging file
-                addition.delete();
-            }
-        } else { // no file in staging for addition
-            if (curr.getFiles() == null || !curr.getFiles().containsKey(filename)) {
-                exitWithError("No reason to remove the file.");
-            }
+        if (!Staging.additions().containsKey(filename) && (curr.getFiles() == null || !curr.getFiles().containsKey(filename))) {
+            exitWithError("No reason to remove the file.");
         }
+        Staging.unadd(filename);
         if(curr.getFiles() != null && curr.getFiles().containsKey(filename)){
-            if(!removal.exists()){ //create the staging for removal
-                removal.createNewFile();
-                HashMap<String, String> emptyAdd = new HashMap<>();
-                Utils.writeObject(removal ,emptyAdd);
-            }
-            HashMap currstage = Utils.readObject(removal, HashMap.class);
-            currstage.put(filename,curr.getFiles().get(filename));
-            Utils.writeObject(removal, currstage);
+            Staging.remove(filename,curr.getFiles().get(filename));
             Utils.restrictedDelete(filename);
+            StatCache.forget(filename);
         }
     }
 
@@ -330,6 +567,13 @@ public class Main {
         if(args.length != 2){
             exitWithError("Incorrect operands.");
         }
+        if(args[1].equals("-v")){
+            branchVerbose();
+            return;
+        }
+        if(!isBranchName(args[1])){
+            exitWithError("Invalid branch name.");
+        }
         File branchName = new File(GITLET, args[1]);
         if(branchName.exists()){
             exitWithError("A branch with that name already exists.");
@@ -337,7 +581,46 @@ public class Main {
         branchName.createNewFile();
         Commit curr = getHEAD();
         String head_sha1 = curr.getSha1Code();
-        Utils.writeContents(branchName, head_sha1);
+        Durability.updateRef(branchName, head_sha1);
+        storeTipBitmaps();
+    }
+
+    /** whether NAME can name a branch: a plain file name in .gitlet that is not hidden and, ignoring case so that
+     *  case-insensitive file systems are covered too, not one of the RESERVED_NAMES */
+    public static boolean isBranchName(String name){
+        if(name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains(File.separator)){
+            return false;
+        }
+        for(String reserved : RESERVED_NAMES){
+            if(name.equalsIgnoreCase(reserved)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** print every branch with its head commit and how many commits it is ahead of and behind the current branch */
+    public static void branchVerbose(){
+        String currBranch = Utils.readContentsAsString(HEAD);
+        CommitGraph graph = CommitGraph.get();
+        BitSet currReachable = graph.reachable(graph.row(getHEADId()));
+        for(String branch : Utils.plainFilenamesIn(GITLET)){
+            if(branch.equals("HEAD")){
+                continue;
+            }
+            String id = Utils.readContentsAsString(Utils.join(GITLET, branch));
+            BitSet reachable = graph.reachable(graph.row(id));
+            BitSet ahead = (BitSet) reachable.clone();
+            ahead.andNot(currReachable);
+            BitSet behind = (BitSet) currReachable.clone();
+            behind.andNot(reachable);
+            String counts = "";
+            if(ahead.cardinality() > 0 || behind.cardinality() > 0){
+                counts = " [ahead " + ahead.cardinality() + ", behind " + behind.cardinality() + "]";
+            }
+            System.out.println((branch.equals(currBranch) ? "*" : " ") + branch + " " + id.substring(0, 7)
+                    + counts + " " + Commit.load(id).getMessage());
+        }
     }
 
     public static void removeBranch(String[] args){
@@ -355,6 +638,7 @@ public class Main {
             exitWithError("Cannot remove the current branch.");
         }
         branchName.delete();
+        storeTipBitmaps();
     }
 
     public static void checkout(String[] args) throws IOException {
@@ -371,38 +655,9 @@ public class Main {
             }
             Commit currCommit = getHEAD();
             String branchCommitID = Utils.readContentsAsString(Utils.join(GITLET, args[1]));
-            Commit branchCommit = Utils.readObject(Utils.join(committingArea, branchCommitID), Commit.class);
-            if(branchCommit.getFiles() != null) {
-                for (String filename : branchCommit.getFiles().keySet()) { //failure case
-                    File workingPath = Utils.join(CWD, filename);
-                    if (workingPath.exists() && (currCommit.getFiles() == null || !currCommit.getFiles().containsKey(filename))) { //failure case
-                        exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
-                    }
-                }
-            }
-            /** delete the file that tracked in current commit but not in the checkout branch*/
-            if(currCommit.getFiles() != null) {
-                for (String filename : currCommit.getFiles().keySet()) {
-                    File workingPath = Utils.join(CWD, filename);
-                    if (workingPath.exists() && (branchCommit.getFiles() == null || !branchCommit.getFiles().containsKey(filename))) {
-                        workingPath.delete();
-                    }
-                }
-            }
-            /** copy, overwrite */
-            if(branchCommit.getFiles() != null) {
-                for (String filename : branchCommit.getFiles().keySet()) {
-                    File overwrite = Utils.join(CWD, filename);
-                    if (!overwrite.exists()) {
-                        overwrite.createNewFile();
-                    }
-                    File blob = Utils.join(blobsArea, branchCommit.getFiles().get(filename));
-                    Utils.writeContents(overwrite, Utils.readContents(blob));
-                }
-            }
-            removal.delete();
-            addition.delete();
-            Utils.writeContents(HEAD, args[1]);
+            checkoutCommit(currCommit, Commit.load(branchCommitID));
+            Staging.clear();
+            Durability.updateRef(HEAD, args[1]);
         } else if(args.length == 3){ //checkout file in current commit
             if(!args[1].equals("--")){
                 exitWithError("Incorrect operands.");
@@ -411,45 +666,18 @@ public class Main {
             if (currCommit.getFiles() == null || !currCommit.getFiles().containsKey(args[2])) { //failure case
                 exitWithError("File does not exist in that commit.");
             }
-            File checkoutFile = Utils.join(CWD, args[2]);
-            if(!checkoutFile.exists()){
-                checkoutFile.createNewFile();
-            }
-            File blob = Utils.join(blobsArea, currCommit.getFiles().get(args[2]));
-            Utils.writeContents(checkoutFile, Utils.readContents(blob));
+            writeWorkingFile(args[2], currCommit.getFiles().get(args[2]));
         }else if(args.length == 4){ //checkout file in specific commit
             if(!args[2].equals("--")){
                 exitWithError("Incorrect operands.");
             }
-            /** shorten id */
-            String commitInCommand = args[1];
-            if(commitInCommand.length() < 40){
-                for(String commitId: Utils.plainFilenamesIn(committingArea)){
-                    if(shortenIdCheck(args[1], commitId)){
-                        commitInCommand = commitId;
-                        break;
-                    }
-                }
-                if(commitInCommand.equals(args[1])){
-                    exitWithError("No commit with that id exists.");
-                }
-            }
-
-            List commitList = Utils.plainFilenamesIn(committingArea);
-            if (!commitList.contains(commitInCommand)){ //failure case
-                exitWithError("No commit with that id exists.");
-            }
-            Commit sCommit = Utils.readObject(Utils.join(committingArea, commitInCommand), Commit.class);
+            String commitInCommand = resolveCommitId(args[1]); // may be shortened
+            Commit sCommit = Commit.load(commitInCommand);
             if(sCommit.getFiles() != null) {
                 if (!sCommit.getFiles().containsKey(args[3])) { //failure case
                     exitWithError("File does not exist in that commit.");
                 }
-                File checkoutFile = Utils.join(CWD, args[3]);
-                if (!checkoutFile.exists()) {
-                    checkoutFile.createNewFile();
-                }
-                File blob = Utils.join(blobsArea, sCommit.getFiles().get(args[3]));
-                Utils.writeContents(checkoutFile, Utils.readContents(blob));
+                writeWorkingFile(args[3], sCommit.getFiles().get(args[3]));
             }
         }else{
             exitWithError("Incorrect operands.");
@@ -475,29 +703,17 @@ public class Main {
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        if (addition.exists()) {
-            HashMap<String, String> stagingList = Utils.readObject(addition, HashMap.class);
-            List<String> list = new ArrayList<>();
-            for (String i : stagingList.keySet()) {
-                list.add(i);
-            }
-            Collections.sort(list);
-            for (String i : list){
-                System.out.println(i);
-            }
+        List<String> stagedList = new ArrayList<>(Staging.additions().keySet());
+        Collections.sort(stagedList);
+        for (String i : stagedList){
+            System.out.println(i);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        if (removal.exists()) {
-            HashMap<String, String> stagingList = Utils.readObject(removal, HashMap.class);
-            List<String> list = new ArrayList<>();
-            for (String i : stagingList.keySet()) {
-                list.add(i);
-            }
-            Collections.sort(list);
-            for (String i : list){
-                System.out.println(i);
-            }
+        List<String> removedList = new ArrayList<>(Staging.removals().keySet());
+        Collections.sort(removedList);
+        for (String i : removedList){
+            System.out.println(i);
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
@@ -508,26 +724,23 @@ public class Main {
             for (String i : files.keySet()) {
                 File a = Utils.join(CWD, i);
                 if (a.exists()) {
-                    if (!files.get(i).equals(Utils.sha1(Utils.readContents(a)))) {
+                    if (!files.get(i).equals(StatCache.hash(i, Utils::sha1OfFile))) {
                         Modification.add(i + " (modified)");
                     }
                 } else {
-                    if (!removal.exists()) {
+                    if (Staging.removals().isEmpty()) {
                         Modification.add(i + " (deleted)");
                     }
                 }
             }
         }
-        if (addition.exists()) {
-            HashMap<String, String> add = Utils.readObject(addition, HashMap.class);
-            List<String> AllFiles = Utils.plainFilenamesIn(CWD);
-            for (String i : add.keySet()) {
-                if (Utils.join(CWD, i).exists() && !add.get(i).equals(Utils.sha1(Utils.readContents(Utils.join(CWD, i))))) {
-                    Modification.add(i + " (modified");
-                }
-                if (!Utils.join(CWD, i).exists()) {
-                    Modification.add(i + " (deleted)");
-                }
+        Map<String, String> add = Staging.additions();
+        for (String i : add.keySet()) {
+            if (Utils.join(CWD, i).exists() && !add.get(i).equals(StatCache.hash(i, Utils::sha1OfFile))) {
+                Modification.add(i + " (modified");
+            }
+            if (!Utils.join(CWD, i).exists()) {
+                Modification.add(i + " (deleted)");
             }
         }
         Collections.sort(Modification);
@@ -536,19 +749,16 @@ public class Main {
         }
         System.out.println();
         System.out.println("=== Untracked Files ===");
-        if (removal.exists()) {
-            HashMap<String, String> remove = Utils.readObject(removal, HashMap.class);
-            List<String> Untracked = new ArrayList<>();
-            for (String i : remove.keySet()) {
-                if (Utils.join(CWD, i).exists()) {
-                    Untracked.add(i);
-                }
-            }
-            Collections.sort(Untracked);
-            for (String name : Untracked) {
-                System.out.println(name);
+        List<String> Untracked = new ArrayList<>();
+        for (String i : Staging.removals().keySet()) {
+            if (Utils.join(CWD, i).exists()) {
+                Untracked.add(i);
             }
         }
+        Collections.sort(Untracked);
+        for (String name : Untracked) {
+            System.out.println(name);
+        }
         System.out.println();
     }
 
@@ -559,303 +769,344 @@ public class Main {
         if(args.length != 2){
             exitWithError("Incorrect operands.");
         }
-        String commitInCommand = args[1];
-        /** shorten id */
-        if(commitInCommand.length() < 40){
-            for(String commitId: Utils.plainFilenamesIn(committingArea)){
-                if(shortenIdCheck(args[1], commitId)){
-                    commitInCommand = commitId;
-                    break;
-                }
-            }
-            if(commitInCommand.equals(args[1])){
-                exitWithError("No commit with that id exists.");
-            }
-        }else{
-            List commitList = Utils.plainFilenamesIn(committingArea);
-            if (!commitList.contains(commitInCommand)) { //failure case
-                exitWithError("No commit with that id exists.");
-            }
-        }
+        String commitInCommand = resolveCommitId(args[1]); // may be shortened
 
-        Commit currCommit = getHEAD();
-        Commit sCommit = Utils.readObject(Utils.join(committingArea, commitInCommand), Commit.class);
-        for(String filename: sCommit.getFiles().keySet()){ //failure case
-            File workingPath = Utils.join(CWD, filename);
-            if(workingPath.exists() && !currCommit.getFiles().containsKey(filename)){ //failure case
+        checkoutCommit(getHEAD(), Commit.load(commitInCommand));
+        /** update the head */
+        File branchName = Utils.join(GITLET, Utils.readContentsAsString(HEAD));
+        Durability.updateRef(branchName, commitInCommand);
+        storeTipBitmaps();
+        /** clear staging area */
+        Staging.clear();
+    }
+
+    /** replace the files of CURR in the working directory with those of TARGET, writing and deleting only the files
+     *  whose blob differs between the two commits; fails before touching anything if an untracked file is in the way */
+    public static void checkoutCommit(Commit curr, Commit target) throws IOException {
+        HashMap<String, String[]> changes = Tree.diff(curr.getTree(), target.getTree()); //{blob in curr, blob in target}
+        for(Map.Entry<String, String[]> change: changes.entrySet()){ //failure case
+            if(change.getValue()[0] == null && Utils.join(CWD, change.getKey()).exists()){
                 exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
-        /** delete the file that tracked in current commit but not in the checkout branch*/
-        for(String filename: currCommit.getFiles().keySet()){
-            File workingPath = Utils.join(CWD, filename);
-            if(workingPath.exists() && !sCommit.getFiles().containsKey(filename)){
-                workingPath.delete();
+        for(Map.Entry<String, String[]> change: changes.entrySet()){
+            String filename = change.getKey();
+            if(change.getValue()[1] == null){ /** delete the file that tracked in current commit but not in the target */
+                Utils.join(CWD, filename).delete();
+                StatCache.forget(filename);
+            }else{
+                writeWorkingFile(filename, change.getValue()[1]);
             }
         }
-        /** copy, overwrite */
-        for(String filename: sCommit.getFiles().keySet()){
-            File overwrite = Utils.join(CWD, filename);
-            if(!overwrite.exists()){ overwrite.createNewFile();}
-            File blob = Utils.join(blobsArea, sCommit.getFiles().get(filename));
-            Utils.writeContents(overwrite, Utils.readContents(blob));
-        }
-        /** update the head */
-        File branchName = Utils.join(GITLET, Utils.readContentsAsString(HEAD));
-        Utils.writeContents(branchName, commitInCommand);
-        /** clear staging area */
-        addition.delete();
-        removal.delete();
+    }
+
+    /** overwrite or create the working file FILENAME with the contents of blob ID */
+    public static void writeWorkingFile(String filename, String id) throws IOException {
+        File overwrite = Utils.join(CWD, filename);
+        if(!overwrite.exists()){ overwrite.createNewFile();}
+        BlobStore.copyTo(id, overwrite);
+        StatCache.record(filename, id);
     }
 
     public static void merge(String branchName) throws IOException {
         if(!GITLET.exists()){
             exitWithError("Not in an initialized Gitlet directory.");
         }
-        boolean conflict = false;
-        if (addition.exists() || removal.exists()) { //failure case
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (!Staging.isEmpty()) { //failure case
+            exitWithError("You have uncommitted changes.");
         }
         if (branchName.equals(Utils.readContentsAsString(HEAD))) { //failure case
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            exitWithError("Cannot merge a branch with itself.");
         }
         File branch = new File(GITLET, branchName);
         if (!branch.exists()) { // failure case
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            exitWithError("A branch with that name does not exist.");
         }
 
         /** get commit of latest split point */
         Commit curr = getHEAD();
-        Commit given = Utils.readObject(Utils.join(committingArea, Utils.readContentsAsString(Utils.join(GITLET, branchName))), Commit.class);
-        Commit split = getSplitPoint(curr, given);
+        Commit given = Commit.load(Utils.readContentsAsString(Utils.join(GITLET, branchName)));
+        /** the reachability bitmaps answer the ancestor and fast-forward cases with one bit test each */
+        CommitGraph graph = CommitGraph.get();
+        int currRow = graph.row(curr.getSha1Code());
+        int givenRow = graph.row(given.getSha1Code());
 
-        if(given.getSha1Code().equals(split.getSha1Code())){
+        if(graph.reachable(currRow).get(givenRow)){
             System.out.println("Given branch is an ancestor of the current branch.");
-        }else if(curr.getSha1Code().equals(split.getSha1Code())){
+        }else if(graph.reachable(givenRow).get(currRow)){
             String[] command = {"checkout", branchName};
             checkout(command);
             System.out.println("Current branch fast-forwarded.");
         }else{
-            /** put all file names in a set */
-            Set<String> fileNameSet = new HashSet<>();
-            if(curr.getFiles() != null){
-                fileNameSet.addAll(curr.getFiles().keySet());
-            }
-            if(given.getFiles() != null){
-                fileNameSet.addAll(given.getFiles().keySet());
-            }
-            if(split != null && split.getFiles() != null){
-                fileNameSet.addAll(split.getFiles().keySet());
-            }
-
-            for(String filename: fileNameSet){
-                /** case 1 112*/
-                if((checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        sameVersion(split, curr, filename) && (!sameVersion(split, given, filename))){
-                    checkout(checkoutCommand(given, filename));
-                    addFileToStaged(addCommand(filename));
-                    /** case 2 121*/
-                }else if((checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        sameVersion(split, given, filename) && (!sameVersion(split, curr, filename))){
-                    continue;
-                    /** case 3 122*/
-                }else if((checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        sameVersion(curr, given, filename) && (!sameVersion(split, curr, filename))){
-                    continue;
-                    /** case 4 1XX*/
-                }else if((checkContain(split, filename) && !checkContain(curr, filename) && !checkContain(given, filename))){
-                    continue;
-                    /** case 5 X1X*/
-                }else if((!checkContain(split, filename) && checkContain(curr, filename) && !checkContain(given, filename))){
-                    continue;
-                    /** case 6 XX1*/
-                }else if((!checkContain(split, filename) && !checkContain(curr, filename) && checkContain(given, filename))){
-                    if (Utils.join(CWD, filename).exists()) {
-                        exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
-                    }
-                    checkout(checkoutCommand(given, filename));
-                    addFileToStaged(addCommand(filename));
-                    /** case 7 11X*/
-                }else if((checkContain(split, filename) && checkContain(curr, filename) && !checkContain(given, filename)) &&
-                        sameVersion(split, curr, filename)){
-                    File path = Utils.join(CWD, filename);
-                    path.delete();
-                    String[] command = {"rm", filename};
-                    rm(command);
-                    /** case 8 1X1*/
-                }else if((checkContain(split, filename) && !checkContain(curr, filename) && checkContain(given, filename)) &&
-                        sameVersion(split, given, filename)){
-                    continue;
-                    /** case 9 X11*/
-                }else if((!checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        sameVersion(curr, given, filename)) {
-                    continue;
-                    /** case 10 123*/
-                }else if((checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        (!sameVersion(curr, given, filename) && !sameVersion(curr, split, filename) && !sameVersion(split, given, filename))) {
-                    mergeConflict2(curr, given, filename);
-                    addFileToStaged(addCommand(filename));
-                    conflict = true;
-                    /** case 11 12X*/
-                }else if((checkContain(split, filename) && checkContain(curr, filename) && !checkContain(given, filename)) &&
-                        !sameVersion(split, curr, filename)){
-                    mergeConflict3(curr, given, filename);
-                    addFileToStaged(addCommand(filename));
-                    conflict = true;
-                    /** case 12 1X2*/
-                }else if((checkContain(split, filename) && !checkContain(curr, filename) && checkContain(given, filename)) &&
-                        !sameVersion(split, given, filename)){
-                    if (Utils.join(CWD, filename).exists()) {
-                        exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
-                    }
-                    mergeConflict1(curr, given, filename);
-                    addFileToStaged(addCommand(filename));
-                    conflict = true;
-                    /** case 13 X12*/
-                }else if((!checkContain(split, filename) && checkContain(curr, filename) && checkContain(given, filename)) &&
-                        !sameVersion(curr, given, filename)){
-                    mergeConflict2(curr, given, filename);
-                    addFileToStaged(addCommand(filename));
-                    conflict = true;
+            Commit split = getSplitPoint(curr, given);
+            HashMap<String, String> changes = new HashMap<>();
+            boolean conflict = mergeTrees(split, curr, given, changes);
+            if(changes.isEmpty()){
+                exitWithError("No changes added to the commit.");
+            }
+            HashMap<String, String> currFiles = curr.getFiles() == null ? new HashMap<>() : curr.getFiles();
+            for(Map.Entry<String, String> change: changes.entrySet()){ //failure case, found before anything is changed
+                if(change.getValue() != null && !currFiles.containsKey(change.getKey()) && Utils.join(CWD, change.getKey()).exists()){
+                    exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
+                }
+            }
+            String message = "Merged " + branchName + " into " + Utils.readContentsAsString(HEAD) + ".";
+            commitTree(curr, message, Tree.update(curr.getTree(), changes), given.getSha1Code());
+            /** the working directory is updated once, with only the files the merge changed */
+            for(Map.Entry<String, String> change: changes.entrySet()){
+                if(change.getValue() == null){
+                    Utils.restrictedDelete(change.getKey());
+                    StatCache.forget(change.getKey());
+                }else{
+                    writeWorkingFile(change.getKey(), change.getValue());
                 }
             }
-            /** commit */
-            String[] command = {"commit", "Merged " + branchName + " into " + Utils.readContentsAsString(HEAD) + "."};
-            makeCommit(command);
-            Commit head = getHEAD();
-            head.setParent2(given.getSha1Code());
-            Utils.writeObject(Utils.join(committingArea, head.getSha1Code()), head);
             if(conflict){
                 System.out.println("Encountered a merge conflict.");
             }
         }
     }
-    public static void mergeConflict1(Commit curr, Commit branch, String filename){
-        String branchContent = new String(Utils.readContents(Utils.join(blobsArea, branch.getFiles().get(filename))));
-        File path = Utils.join(CWD, filename);
-        Utils.writeContents(path, "<<<<<<< HEAD"
-                + System.lineSeparator()
-                + "=======" + System.lineSeparator() + branchContent
-                + ">>>>>>>" + System.lineSeparator());
+
+    /** merge in memory the changes from SPLIT (null if none) to GIVEN into CURR: put in CHANGES each file whose merged
+     *  blob differs from its blob in CURR, mapped to the new blob or to null if the merge removes it, and return true
+     *  iff there is a conflict.  Only the files that GIVEN changed are looked at, in name order, found by diffing
+     *  trees; the blobs of merged and conflicting files are stored, but nothing else is written */
+    public static boolean mergeTrees(Commit split, Commit curr, Commit given, Map<String, String> changes) throws IOException {
+        String splitTree = split == null ? null : split.getTree();
+        HashMap<String, String[]> currChanges = Tree.diff(splitTree, curr.getTree());
+        HashMap<String, String[]> givenChanges = Tree.diff(splitTree, given.getTree());
+        boolean conflict = false;
+        for(String filename: new TreeSet<>(givenChanges.keySet())){
+            String s = givenChanges.get(filename)[0], g = givenChanges.get(filename)[1]; //blobs at the split and in GIVEN, null if absent
+            String c = currChanges.containsKey(filename) ? currChanges.get(filename)[1] : s;
+            if(Objects.equals(c, g)){ //both made the same change
+                continue;
+            }
+            if(Objects.equals(c, s)){ //only GIVEN changed it
+                changes.put(filename, g);
+                continue;
+            }
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            if(s != null && c != null && g != null){ //both modified it: only the changes that overlap conflict
+                conflict |= Diff3.merge(BlobStore.read(s), BlobStore.read(c), BlobStore.read(g), merged);
+            }else{ //added on both sides, or modified on one and removed on the other
+                Diff3.conflict(c == null ? new byte[0] : BlobStore.read(c), g == null ? new byte[0] : BlobStore.read(g), merged);
+                conflict = true;
+            }
+            byte[] contents = merged.toByteArray();
+            String id = Utils.sha1(contents);
+            BlobStore.write(id, contents, c);
+            if(!id.equals(c)){
+                changes.put(filename, id);
+            }
+        }
+        return conflict;
+    }
+    /** pack all loose blobs into a single pack file */
+    public static void repack(String[] args){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length != 1){
+            exitWithError("Incorrect operands.");
+        }
+        int packed = BlobStore.repack();
+        System.out.println("Packed " + packed + " blobs.");
     }
 
-    public static void mergeConflict2(Commit curr, Commit branch, String filename){
-        String currContent = new String(Utils.readContents(Utils.join(blobsArea, curr.getFiles().get(filename))));
-        String branchContent = new String(Utils.readContents(Utils.join(blobsArea, branch.getFiles().get(filename))));
-        File path = Utils.join(CWD, filename);
-        Utils.writeContents(path, "<<<<<<< HEAD\n"
-                + currContent + "=======\n" + branchContent
-                + ">>>>>>>\n");
+    /** remove the commits, trees and blobs no branch, staged file or recent command uses; "--grace SECONDS" keeps
+     *  those written in the last SECONDS instead of the configured grace period */
+    public static void gc(String[] args){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length != 1 && !(args.length == 3 && args[1].equals("--grace"))){
+            exitWithError("Incorrect operands.");
+        }
+        long grace = GarbageCollector.configuredGrace();
+        if(args.length == 3){
+            if(!isCount(args[2])){
+                exitWithError("Invalid value.");
+            }
+            grace = Long.parseLong(args[2]);
+        }
+        GarbageCollector collector = new GarbageCollector(grace);
+        collector.run();
+        System.out.println("Reclaimed " + collector.objectsRemoved() + " objects, " + collector.bytesFreed() + " bytes.");
     }
 
-    public static void mergeConflict3(Commit curr, Commit branch, String filename){
-        String currContent = new String(Utils.readContents(Utils.join(blobsArea, curr.getFiles().get(filename))));
-        File path = Utils.join(CWD, filename);
-        Utils.writeContents(path, "<<<<<<< HEAD"
-                + System.lineSeparator()
-                + currContent + "=======" + System.lineSeparator()
-                + ">>>>>>>\n");
+    /** check every stored object against its id and every link between objects, printing the problems found and
+     *  how fast the store was read */
+    public static void fsck(String[] args){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length != 1){
+            exitWithError("Incorrect operands.");
+        }
+        long problems = new Fsck(System.out).run();
+        if(problems > 0){
+            exitWithError("Found " + problems + (problems == 1 ? " problem." : " problems."));
+        }
     }
 
-    public static String[] checkoutCommand(Commit commit, String filename){
-        String sha1 = commit.getSha1Code();
-        String[] command = {"checkout",sha1 , "--", filename };
-        return command;
+    /** whether VALUE is a count of things, a number from 0 that fits in a long */
+    private static boolean isCount(String value){
+        try{
+            return Long.parseLong(value) >= 0;
+        }catch(NumberFormatException e){
+            return false;
+        }
     }
 
-    public static String[] addCommand(String file){
-        String[] command = {"add", file};
-        return command;
+    /** rewrite commits stored with Java serialization in the binary commit format, keeping their ids */
+    public static void migrate(String[] args){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length != 1){
+            exitWithError("Incorrect operands.");
+        }
+        int migrated = 0;
+        StringBuilder migratedIds = new StringBuilder();
+        if(migratedCommits.exists()){
+            migratedIds.append(Utils.readContentsAsString(migratedCommits));
+        }
+        for(String id : Utils.plainFilenamesIn(committingArea)){
+            File path = Utils.join(committingArea, id);
+            byte[] data = Utils.readContents(path);
+            if(CommitCodec.isSerialized(data)){
+                Commit commit = Utils.deserialize(data, Commit.class);
+                Durability.write(path, CommitCodec.encode(commit));
+                migratedIds.append(id).append("\n");
+                migrated += 1;
+            }
+        }
+        /** ids of migrated commits are not hashes of their new encoding, so remember them */
+        infoArea.mkdir();
+        Durability.write(migratedCommits, migratedIds.toString());
+        System.out.println("Migrated " + migrated + " commits.");
     }
 
-    public static boolean checkContain(Commit thisCommit, String file){
-        return (thisCommit.getFiles() != null && thisCommit.getFiles().containsKey(file));
+    /** print the setting args[1], or set it to args[2]: checkout.hardlinks and core.compression take true or false,
+     *  core.durability one of none, batch and full, and gc.grace a number of seconds. core.compression defaults to
+     *  true, which saves space but means checkouts inflate every blob; setting it to false stores new blobs as they
+     *  are, so checkouts copy them with the zero-copy transferTo path, at the cost of the space compression saves */
+    public static void config(String[] args){
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length != 2 && args.length != 3){
+            exitWithError("Incorrect operands.");
+        }
+        if(!Config.KEYS.contains(args[1])){
+            exitWithError("No such setting.");
+        }
+        if(args.length == 2){
+            System.out.println(Config.get(args[1], ""));
+        }else if(args[1].equals(Config.DURABILITY) && !Durability.LEVELS.contains(args[2])){
+            exitWithError("Invalid value.");
+        }else if(args[1].equals(Config.GC_GRACE) && !isCount(args[2])){
+            exitWithError("Invalid value.");
+        }else if(Config.BOOLEANS.contains(args[1]) && !Config.isBoolean(args[2])){
+            exitWithError("Invalid value.");
+        }else{
+            Config.set(args[1], args[2]);
+        }
     }
 
-    public static boolean sameVersion(Commit commit1, Commit commit2, String file){
-        return (commit1.getFiles().get(file).equals(commit2.getFiles().get(file)));
+    /** read history from the fast-import stream in the file args[1], or standard input, into the repository */
+    public static void fastImport(String[] args) throws IOException {
+        if(!GITLET.exists()){
+            exitWithError("Not in an initialized Gitlet directory.");
+        }
+        if(args.length > 2){
+            exitWithError("Incorrect operands.");
+        }
+        if(args.length == 2){
+            try(InputStream in = new FileInputStream(args[1])){
+                new FastImport(in).run();
+            }
+        }else{
+            new FastImport(System.in).run();
+        }
     }
 
+    /** whether CURR is BRANCHHEAD or one of its ancestors */
     public static boolean inBranch(Commit curr, Commit branchHead){
         if(curr == null || branchHead == null){
             return false;
-        }if(curr.getSha1Code().equals(branchHead.getSha1Code())){
-            return true;
-        } else if(branchHead.getParent() == null){
-            return false;
-        } else{
-            boolean result = false;
-            if(branchHead.getParent() != null) {
-                Commit branchParent1 = Utils.readObject(Utils.join(committingArea, branchHead.getParent()), Commit.class);
-                if(inBranch(curr, branchParent1)){
-                    result = true;
-                }
-            }
-            if(branchHead.getParent2() != null){
-                Commit branchParent2 = Utils.readObject(Utils.join(committingArea, branchHead.getParent2()), Commit.class);
-                if(inBranch(curr, branchParent2)){
-                    result = true;
-                }
-            }
-            return result;
         }
+        CommitGraph graph = CommitGraph.get();
+        return graph.isAncestor(graph.row(curr.getSha1Code()), graph.row(branchHead.getSha1Code()));
     }
 
+    /** the latest common ancestor of CURR and GIVENHEAD, found in the commit graph */
     public static Commit getSplitPoint(Commit curr, Commit givenHead){
-        ArrayDeque<String> splitDeque = new ArrayDeque<>();
-        splitDeque.add(curr.getSha1Code());
-        while(!splitDeque.isEmpty()){
-            Commit pop = Utils.readObject(Utils.join(committingArea, splitDeque.poll()), Commit.class);
-            if(inBranch(pop, givenHead)){
-                return pop;
-            } else{
-                if(pop.getParent() != null){
-                    splitDeque.add(pop.getParent());
-                }
-                if(pop.getParent2() != null){
-                    splitDeque.add(pop.getParent2());
-                }
-            }
-        }
-        return null;
+        CommitGraph graph = CommitGraph.get();
+        int split = graph.splitPoint(graph.row(curr.getSha1Code()), graph.row(givenHead.getSha1Code()));
+        return split == CommitGraph.NONE ? null : Commit.load(graph.id(split));
     }
 
 
     /** helper method to get the commit stored in HEAD */
     public static Commit getHEAD(){
+        return Commit.load(getHEADId());
+    }
+
+    /** helper method to get the id of the commit stored in HEAD */
+    public static String getHEADId(){
         File currHead = Utils.join(GITLET, Utils.readContentsAsString(HEAD));
-        return Utils.readObject(Utils.join(committingArea, Utils.readContentsAsString(currHead)), Commit.class);
+        return Utils.readContentsAsString(currHead);
     }
 
+    /** abandon the current command with the error MESSAGE, which run prints */
     public static void exitWithError(String message) {
-        if (message != null && !message.equals("")) {
-            System.out.println(message);
-        }
-        System.exit(0);
+        throw new GitletException(message);
     }
 
     public static HashSet<String> getAllParents(HashSet<String> parentSet, Commit branchHead){
-        parentSet.add(branchHead.getSha1Code());
-        if(branchHead.getParent() != null){
-            Commit parent1 = Utils.readObject(Utils.join(committingArea, branchHead.getParent()), Commit.class);
-            getAllParents(parentSet, parent1);
-        }
-        if(branchHead.getParent2() != null){
-            Commit parent2 = Utils.readObject(Utils.join(committingArea, branchHead.getParent2()), Commit.class);
-            getAllParents(parentSet, parent2);
+        CommitGraph graph = CommitGraph.get();
+        BitSet ancestors = graph.ancestors(graph.row(branchHead.getSha1Code()));
+        for(int row = ancestors.nextSetBit(0); row >= 0; row = ancestors.nextSetBit(row + 1)){
+            parentSet.add(graph.id(row));
         }
         return parentSet;
     }
 
-    public static boolean shortenIdCheck(String shortId, String longId){
-        for(int i = 0; i < shortId.length(); i++){
-            if(shortId.charAt(i) != longId.charAt(i)){
-                return false;
+    /** the full id of the commit whose id is or starts with ID, looked up in the commit id index */
+    public static String resolveCommitId(String id){
+        List<String> matches = CommitIndex.lookup(id, 2);
+        if(matches.isEmpty()){ //failure case
+            exitWithError("No commit with that id exists.");
+        }
+        if(matches.size() > 1){ //failure case
+            exitWithError("Ambiguous commit id.");
+        }
+        return matches.get(0);
+    }
+
+    /** return the ids of the commits the branches point to */
+    public static List<String> branchHeads(){
+        List<String> heads = new ArrayList<>();
+        for(String branch : Utils.plainFilenamesIn(GITLET)){
+            if(!branch.equals("HEAD")){
+                heads.add(Utils.readContentsAsString(Utils.join(GITLET, branch)));
             }
         }
-        return true;
+        return heads;
+    }
+
+    /** store the reachability bitmaps of the branch heads, and delete those of commits that are no longer heads */
+    public static void storeTipBitmaps(){
+        CommitGraph.get().storeTips(branchHeads());
+    }
+
+    /** add the new commit COMMIT to the commit graph and the commit id index */
+    public static void recordCommit(Commit commit){
+        CommitGraph graph = CommitGraph.get();
+        graph.add(commit);
+        CommitIndex.add(commit.getSha1Code());
+        MessageIndex.add(commit.getSha1Code(), commit.getMessage());
     }
 }
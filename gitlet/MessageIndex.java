@@ -0,0 +1,535 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** A persistent inverted index of commit messages, for find.  Like
+ *  CommitIndex it is made of two files in Main.graphArea:
+ *      messages      the indexed commits, memory-mapped;
+ *      messages.new  COUNT (ID MESSAGE)..., records appended as commits
+ *                    are made, where MESSAGE is a varint-length UTF-8
+ *                    string and COUNT, an int, is how many there are.
+ *  Adding commits reads only COUNT, so the second file is read whole only
+ *  when searching and when, holding more than MAX_PENDING commits, it is
+ *  merged with the first into a new first file, which is
+ *      "GLMI" VERSION COMMITS KEYS IDS MESSAGE_OFFSETS KEY_VALUES
+ *      POSTING_OFFSETS MESSAGES POSTINGS
+ *  where the Kth commit has id IDS[K] and its message is the UTF-8 bytes
+ *  MESSAGES[MESSAGE_OFFSETS[K] .. MESSAGE_OFFSETS[K + 1]], and KEY_VALUES
+ *  is sorted.  The postings of each key, the sorted numbers of the
+ *  commits that have it, are stored as a varint count followed by varint
+ *  differences.  A message has as keys
+ *      each trigram of its bytes, as the value of the three bytes, and
+ *      EXACT plus the first four bytes of its SHA-1.
+ *  An exact search reads one posting list, and a substring or regular
+ *  expression search intersects the postings of the trigrams that any
+ *  match must contain, then checks the messages of the candidates.  Only
+ *  a pattern with no such trigrams, such as one shorter than three bytes,
+ *  makes a search read every message, and even then no commit is read.
+ *  If the index does not exist yet it is built from
+ *  Main.committingArea. */
+class MessageIndex {
+
+    /** Magic number and version of the merged file. */
+    private static final int MAGIC = 0x474c4d49, VERSION = 1;
+    /** Size of the header of the merged file. */
+    private static final int HEADER = 16;
+    /** Size of the header of the pending file. */
+    private static final int PENDING_HEADER = 4;
+    /** Largest number of unmerged commits kept before merging. */
+    private static final int MAX_PENDING = 1024;
+    /** Added to the hash of a message to make its exact key. */
+    private static final long EXACT = 1L << 32;
+
+    /** Returns the merged file. */
+    private static File mergedFile() {
+        return Utils.join(Main.graphArea, "messages");
+    }
+
+    /** Returns the file of unmerged commits. */
+    private static File pendingFile() {
+        return Utils.join(Main.graphArea, "messages.new");
+    }
+
+    /** Records that commit ID has MESSAGE. */
+    static void add(String id, String message) {
+        LinkedHashMap<String, String> one = new LinkedHashMap<>();
+        one.put(id, message);
+        addAll(one);
+    }
+
+    /** Records the commits in MESSAGES, which maps ids to messages. */
+    static void addAll(Map<String, String> messages) {
+        if (!mergedFile().isFile()) {
+            rebuild();
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            byte[] text = e.getValue().getBytes(StandardCharsets.UTF_8);
+            records.write(Utils.sha1Bytes(e.getKey()), 0, Utils.UID_BYTES);
+            Utils.writeVarint(records, text.length);
+            records.write(text, 0, text.length);
+        }
+        int count;
+        try (RandomAccessFile out = new RandomAccessFile(pendingFile(),
+                "rw")) {
+            if (out.length() < PENDING_HEADER) {
+                out.setLength(PENDING_HEADER);
+            }
+            count = out.readInt() + messages.size();
+            out.seek(out.length());
+            out.write(records.toByteArray());
+            out.seek(0);
+            out.writeInt(count);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(pendingFile());
+        if (count > MAX_PENDING) {
+            merge();
+        }
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, in
+     *  order. */
+    static TreeSet<String> exact(String message) {
+        return search(new long[] {exactKey(message)}, message::equals);
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT, in
+     *  order. */
+    static TreeSet<String> substring(String text) {
+        return search(trigrams(List.of(text)), m -> m.contains(text));
+    }
+
+    /** Returns the ids of the commits part of whose message matches
+     *  PATTERN, in order. */
+    static TreeSet<String> regex(Pattern pattern) {
+        return search(trigrams(literals(pattern.pattern())),
+            m -> pattern.matcher(m).find());
+    }
+
+    /** Returns the ids of the commits whose message satisfies MATCHES,
+     *  looking only at the merged commits that have all of KEYS. */
+    private static TreeSet<String> search(long[] keys,
+                                          Predicate<String> matches) {
+        if (!mergedFile().isFile()) {
+            rebuild();
+        }
+        TreeSet<String> found = new TreeSet<>();
+        MappedByteBuffer merged = map(mergedFile());
+        int commits = merged.getInt(8);
+        int[] candidates = null;
+        for (long key : keys) {
+            int[] postings = postings(merged, key);
+            candidates = candidates == null ? postings
+                : intersect(candidates, postings);
+            if (candidates.length == 0) {
+                break;
+            }
+        }
+        if (candidates == null) {
+            candidates = new int[commits];
+            Arrays.setAll(candidates, k -> k);
+        }
+        for (int k : candidates) {
+            if (matches.test(messageAt(merged, k))) {
+                found.add(idAt(merged, k));
+            }
+        }
+        for (Map.Entry<String, String> e : pending().entrySet()) {
+            if (matches.test(e.getValue())) {
+                found.add(e.getKey());
+            }
+        }
+        return found;
+    }
+
+    /** Returns the distinct trigram keys of the strings TEXTS. */
+    private static long[] trigrams(List<String> texts) {
+        TreeSet<Long> keys = new TreeSet<>();
+        for (String text : texts) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 3 <= bytes.length; i += 1) {
+                keys.add(trigram(bytes, i));
+            }
+        }
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** Returns the exact key of MESSAGE. */
+    private static long exactKey(String message) {
+        byte[] hash = Utils.sha1Bytes(Utils.sha1(message));
+        return EXACT | ((hash[0] & 0xffL) << 24) | ((hash[1] & 0xff) << 16)
+            | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+    }
+
+    /** Returns the trigram key of BYTES[I .. I + 3]. */
+    private static long trigram(byte[] bytes, int i) {
+        return ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8)
+            | (bytes[i + 2] & 0xff);
+    }
+
+    /** Returns strings that every match of the regular expression REGEX
+     *  contains.  They may be fewer than could be found: whatever the
+     *  scan does not understand, and anything inside a group, only ends
+     *  the current string.  Patterns with alternatives or flags yield
+     *  none. */
+    static List<String> literals(String regex) {
+        List<String> result = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                i += 1;
+                run.append(regex.charAt(i));
+                continue;
+            }
+            if (c == '*' || c == '?' || c == '{') {
+                if (run.length() > 0) { /* The last character is optional. */
+                    run.setLength(run.length() - 1);
+                }
+            } else if (c != '+' && ".^$()[]}\\".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            if (depth == 0) {
+                result.add(run.toString());
+            }
+            run.setLength(0);
+            if (c == '\\') {
+                i = escapeEnd(regex, i);
+            } else if (c == '[') {
+                i = classEnd(regex, i);
+            } else if (c == '{') {
+                i = Math.max(i, regex.indexOf('}', i));
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            }
+        }
+        if (depth == 0) {
+            result.add(run.toString());
+        }
+        result.removeIf(String::isEmpty);
+        return result;
+    }
+
+    /** Returns the index of the last character of the escape, such as
+     *  \d, \x63 or \p{Lu}, that starts at REGEX[START], so that none of
+     *  its argument is taken for literal text. */
+    private static int escapeEnd(String regex, int start) {
+        int i = start + 1;
+        if (i >= regex.length()) {
+            return start;
+        }
+        char c = regex.charAt(i);
+        int end;
+        switch (c) {
+        case 'x':
+            end = braced(regex, i + 1) ? closing(regex, i + 1, "}")
+                : i + 2;
+            break;
+        case 'u':
+            end = i + 4;
+            break;
+        case 'c':
+            end = i + 1;
+            break;
+        case '0':
+            end = i;
+            while (end - i < 3 && end + 1 < regex.length()
+                   && regex.charAt(end + 1) >= '0'
+                   && regex.charAt(end + 1) <= '7') {
+                end += 1;
+            }
+            break;
+        case 'p': case 'P': case 'N':
+            end = braced(regex, i + 1) ? closing(regex, i + 1, "}")
+                : i + 1;
+            break;
+        case 'k':
+            end = closing(regex, i + 1, ">");
+            break;
+        case 'Q':
+            end = closing(regex, i + 1, "\\E") + 1;
+            break;
+        default:
+            end = i;
+            while (Character.isDigit(c) && end + 1 < regex.length()
+                   && Character.isDigit(regex.charAt(end + 1))) {
+                end += 1; /* A back reference. */
+            }
+        }
+        return Math.min(end, regex.length() - 1);
+    }
+
+    /** Returns true iff REGEX[I] is '{'. */
+    private static boolean braced(String regex, int i) {
+        return i < regex.length() && regex.charAt(i) == '{';
+    }
+
+    /** Returns the index of the first occurrence of CLOSE in REGEX at or
+     *  after FROM, or the end of REGEX if there is none. */
+    private static int closing(String regex, int from, String close) {
+        int k = regex.indexOf(close, from);
+        return k < 0 ? regex.length() : k;
+    }
+
+    /** Returns the index of the ']' that ends the character class that
+     *  starts at REGEX[START]. */
+    private static int classEnd(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i += 1;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i += 1;
+        }
+        while (i < regex.length() && regex.charAt(i) != ']') {
+            i += regex.charAt(i) == '\\' ? 2 : 1;
+        }
+        return i;
+    }
+
+    /** Returns the postings of KEY in MERGED. */
+    private static int[] postings(MappedByteBuffer merged, long key) {
+        int commits = merged.getInt(8), keys = merged.getInt(12);
+        int keysAt = HEADER + commits * Utils.UID_BYTES + (commits + 1) * 4;
+        int lo = 0, hi = keys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (merged.getLong(keysAt + mid * 8) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == keys || merged.getLong(keysAt + lo * 8) != key) {
+            return new int[0];
+        }
+        int offsetsAt = keysAt + keys * 8;
+        int messagesAt = offsetsAt + (keys + 1) * 4;
+        int postingsAt = messagesAt + merged.getInt(
+            HEADER + commits * Utils.UID_BYTES + commits * 4);
+        int[] pos = {postingsAt + merged.getInt(offsetsAt + lo * 4)};
+        int[] result = new int[(int) readVarint(merged, pos)];
+        int k = 0;
+        for (int i = 0; i < result.length; i += 1) {
+            k += (int) readVarint(merged, pos);
+            result[i] = k;
+        }
+        return result;
+    }
+
+    /** Returns the sorted numbers in both of the sorted arrays A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the id of the Kth commit of MERGED. */
+    private static String idAt(MappedByteBuffer merged, int k) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        merged.get(HEADER + k * Utils.UID_BYTES, id);
+        return Utils.sha1Hex(id, 0);
+    }
+
+    /** Returns the message of the Kth commit of MERGED. */
+    private static String messageAt(MappedByteBuffer merged, int k) {
+        int commits = merged.getInt(8), keys = merged.getInt(12);
+        int offsetsAt = HEADER + commits * Utils.UID_BYTES;
+        int messagesAt = offsetsAt + (commits + 1) * 4 + keys * 8
+            + (keys + 1) * 4;
+        int start = merged.getInt(offsetsAt + k * 4);
+        byte[] text = new byte[merged.getInt(offsetsAt + (k + 1) * 4) - start];
+        merged.get(messagesAt + start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the varint at POS[0] in BUF, advancing POS[0] past it. */
+    private static long readVarint(MappedByteBuffer buf, int[] pos) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = buf.get(pos[0]) & 0xff;
+            pos[0] += 1;
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    /** Returns the unmerged commits, mapping ids to messages. */
+    private static LinkedHashMap<String, String> pending() {
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        if (pendingFile().isFile()) {
+            byte[] data = Utils.readContents(pendingFile());
+            int[] pos = {PENDING_HEADER};
+            while (pos[0] < data.length) {
+                String id = Utils.sha1Hex(data, pos[0]);
+                pos[0] += Utils.UID_BYTES;
+                int length = (int) Utils.readVarint(data, pos);
+                result.put(id, new String(data, pos[0], length,
+                        StandardCharsets.UTF_8));
+                pos[0] += length;
+            }
+        }
+        return result;
+    }
+
+    /** Returns FILE memory-mapped. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                    ch.size());
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IllegalArgumentException("corrupt message index");
+            }
+            return buf;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Merges the unmerged commits into the merged file. */
+    private static void merge() {
+        LinkedHashMap<String, String> messages = new LinkedHashMap<>();
+        MappedByteBuffer merged = map(mergedFile());
+        int commits = merged.getInt(8);
+        for (int k = 0; k < commits; k += 1) {
+            messages.put(idAt(merged, k), messageAt(merged, k));
+        }
+        messages.putAll(pending());
+        write(messages);
+    }
+
+    /** Builds the index from the commits in Main.committingArea. */
+    static void rebuild() {
+        LinkedHashMap<String, String> messages = new LinkedHashMap<>();
+        for (String id : Utils.plainFilenamesIn(Main.committingArea)) {
+            messages.put(id, Commit.load(id).getMessage());
+        }
+        write(messages);
+    }
+
+    /** Replaces the index with the merged file of MESSAGES, which maps
+     *  commit ids to messages. */
+    private static void write(LinkedHashMap<String, String> messages) {
+        List<String> ids = new ArrayList<>(messages.keySet());
+        ByteArrayOutputStream texts = new ByteArrayOutputStream();
+        int[] textOffsets = new int[ids.size() + 1];
+        HashMap<Long, int[]> index = new HashMap<>();
+        for (int k = 0; k < ids.size(); k += 1) {
+            String message = messages.get(ids.get(k));
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            texts.write(bytes, 0, bytes.length);
+            textOffsets[k + 1] = texts.size();
+            post(index, exactKey(message), k);
+            for (int i = 0; i + 3 <= bytes.length; i += 1) {
+                post(index, trigram(bytes, i), k);
+            }
+        }
+        TreeMap<Long, int[]> sorted = new TreeMap<>(index);
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        int[] postingOffsets = new int[sorted.size() + 1];
+        int n = 0;
+        for (int[] list : sorted.values()) {
+            Utils.writeVarint(postings, list[0]);
+            int last = 0;
+            for (int i = 1; i <= list[0]; i += 1) {
+                Utils.writeVarint(postings, list[i] - last);
+                last = list[i];
+            }
+            n += 1;
+            postingOffsets[n] = postings.size();
+        }
+        Main.graphArea.mkdir();
+        File tmp = Durability.tempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                out.writeInt(sorted.size());
+                for (String id : ids) {
+                    out.write(Utils.sha1Bytes(id));
+                }
+                for (int offset : textOffsets) {
+                    out.writeInt(offset);
+                }
+                for (long key : sorted.keySet()) {
+                    out.writeLong(key);
+                }
+                for (int offset : postingOffsets) {
+                    out.writeInt(offset);
+                }
+                texts.writeTo(out);
+                postings.writeTo(out);
+            }
+            Durability.install(tmp, mergedFile());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pendingFile().delete();
+    }
+
+    /** Adds commit number K to the postings of KEY in INDEX, where a
+     *  posting list is an array holding its length and then its numbers,
+     *  followed by room to grow. */
+    private static void post(HashMap<Long, int[]> index, long key, int k) {
+        int[] list = index.get(key);
+        if (list == null) {
+            list = new int[2];
+        } else if (list[list[0]] == k) {
+            return; /* The trigram occurs twice in the message. */
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+        }
+        list[0] += 1;
+        list[list[0]] = k;
+        index.put(key, list);
+    }
+}
@@ -0,0 +1,61 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Tests of the literal strings MessageIndex extracts from regular
+ *  expressions.
+ *  @author Ricardo Mo
+ */
+public class MessageIndexTest {
+
+    /** Asserts that every literal of REGEX occurs in each of MATCHES, which
+     *  REGEX must find. */
+    private static void assertSound(String regex, String... matches) {
+        for (String message : matches) {
+            assertTrue(regex + " finds " + message,
+                    Pattern.compile(regex).matcher(message).find());
+            for (String literal : MessageIndex.literals(regex)) {
+                assertTrue(regex + ": " + literal + " is in " + message,
+                        message.contains(literal));
+            }
+        }
+    }
+
+    @Test
+    public void plainText() {
+        assertEquals(List.of("fix bug"), MessageIndex.literals("fix bug"));
+        assertEquals(List.of("a.b"), MessageIndex.literals("a\\.b"));
+    }
+
+    @Test
+    public void metacharactersEndLiterals() {
+        assertEquals(List.of("fi", "bug"), MessageIndex.literals("fix?bug"));
+        assertEquals(List.of("merge", "branch"),
+                MessageIndex.literals("merge.*branch"));
+        assertEquals(List.of(), MessageIndex.literals("a|b"));
+    }
+
+    @Test
+    public void escapeArgumentsAreNotLiterals() {
+        assertEquals(List.of("100"), MessageIndex.literals("\\x63100"));
+        assertEquals(List.of("100"), MessageIndex.literals("\\x{63}100"));
+        assertEquals(List.of("100"), MessageIndex.literals("\\u0063100"));
+        assertEquals(List.of("100"), MessageIndex.literals("\\0143100"));
+        assertEquals(List.of("ab"), MessageIndex.literals("\\cAab"));
+        assertEquals(List.of("ab"), MessageIndex.literals("\\p{Lu}ab"));
+        assertEquals(List.of("ab"), MessageIndex.literals("\\pLab"));
+        assertSound("\\x63100", "c100");
+        assertSound("\\u0063100", "c100", "xc1000");
+        assertSound("\\0143100", "c100");
+        assertSound("\\cAab", "\u0001ab");
+        assertSound("\\p{Lu}ab", "Xab");
+        assertSound("\\N{LATIN SMALL LETTER C}100", "c100");
+        assertSound("(a)\\1x", "aax");
+        assertSound("\\Qa.b\\Ec", "a.bc");
+        assertSound("\\d+ files", "12 files");
+    }
+}
@@ -0,0 +1,328 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.*;
+
+/** A pack of objects: many blobs stored back to back in one .pack file,
+ *  together with a sorted .idx file of their SHA-1 ids.  The index is
+ *  memory-mapped and binary-searched, so a lookup touches no directory
+ *  entries and costs O(log n).
+ *
+ *  The .pack file is the header  "GLPK" VERSION COUNT  followed by one
+ *  entry per object: a TYPE byte and then the object's bytes.
+ *  The .idx file is laid out as
+ *      "GLIX" VERSION COUNT  FANOUT[256]  IDS[COUNT]  OFFSETS[COUNT]
+ *      LENGTHS[COUNT]
+ *  where FANOUT[b] is the number of ids whose first byte is at most b,
+ *  each id is Utils.UID_BYTES bytes, OFFSETS are the 8-byte positions of
+ *  the entries' TYPE bytes in the .pack file and LENGTHS are the 8-byte
+ *  lengths of the entries not counting the TYPE byte. */
+class PackFile {
+
+    /** Magic numbers at the start of .pack and .idx files. */
+    static final int PACK_MAGIC = 0x474c504b, IDX_MAGIC = 0x474c4958;
+    /** Current version of the pack format. */
+    static final int VERSION = 1;
+    /** Entry type of an object stored whole. */
+    static final byte TYPE_FULL = 1;
+    /** Entry type of an object stored as a delta against another object;
+     *  see BlobStore. */
+    static final byte TYPE_DELTA = 2;
+    /** Entry type of an object stored whole and deflated. */
+    static final byte TYPE_DEFLATED = 3;
+    /** Entry type of an object stored as a list of chunks; see
+     *  BlobStore. */
+    static final byte TYPE_MANIFEST = 4;
+
+    /** Size of the VERSION/COUNT headers. */
+    private static final int HEADER = 12;
+    /** Size of the fanout table in bytes. */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** The pack and index files. */
+    private final File packFile, idxFile;
+    /** The memory-mapped index. */
+    private final MappedByteBuffer idx;
+    /** The number of objects in this pack. */
+    private final int count;
+    /** Starting positions of the id, offset and length tables in idx. */
+    private final int idsStart, offsetsStart, lengthsStart;
+    /** Channel on the pack file, opened on first read. */
+    private FileChannel pack;
+
+    /** Opens the pack whose index is IDXFILE. */
+    PackFile(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath(),
+                StandardOpenOption.READ)) {
+            idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt pack index "
+                    + idxFile.getName());
+        }
+        count = idx.getInt(8);
+        idsStart = HEADER + FANOUT_SIZE;
+        offsetsStart = idsStart + count * Utils.UID_BYTES;
+        lengthsStart = offsetsStart + count * 8;
+    }
+
+    File getPackFile() {
+        return packFile;
+    }
+
+    File getIdxFile() {
+        return idxFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the id of the Kth object in sorted order. */
+    String idAt(int k) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        idx.get(idsStart + k * Utils.UID_BYTES, id);
+        return Utils.sha1Hex(id, 0);
+    }
+
+    /** Returns the position of ID in the sorted id table, or -1. */
+    int find(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.sha1Bytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(HEADER + (first - 1) * 4);
+        int hi = idx.getInt(HEADER + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the Kth id in the table with KEY as unsigned bytes. */
+    private int compareId(int k, byte[] key) {
+        int base = idsStart + k * Utils.UID_BYTES;
+        for (int i = 0; i < Utils.UID_BYTES; i += 1) {
+            int c = (idx.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns true iff this pack holds ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Returns the TYPE byte of the Kth object. */
+    byte typeAt(int k) {
+        return readRaw(idx.getLong(offsetsStart + k * 8), 1)[0];
+    }
+
+    /** Returns the stored bytes of the Kth object, without its TYPE. */
+    byte[] dataAt(int k) {
+        long length = idx.getLong(lengthsStart + k * 8);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("object too large to read");
+        }
+        return readRaw(idx.getLong(offsetsStart + k * 8) + 1, (int) length);
+    }
+
+    /** Returns a stream over the stored bytes of the Kth object, without
+     *  its TYPE, that reads the pack a buffer at a time. */
+    InputStream streamAt(int k) {
+        final long start = idx.getLong(offsetsStart + k * 8) + 1;
+        final long end = start + idx.getLong(lengthsStart + k * 8);
+        final FileChannel ch = channel();
+        return new BufferedInputStream(new InputStream() {
+            private long position = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                int want = (int) Math.min(len, end - position);
+                int n = ch.read(ByteBuffer.wrap(b, off, want), position);
+                if (n < 0) {
+                    throw new IOException("truncated pack "
+                            + packFile.getName());
+                }
+                position += n;
+                return n;
+            }
+        }, 1 << 16);
+    }
+
+    /** Copies the stored bytes of the Kth object, without its TYPE, to
+     *  OUT with FileChannel.transferTo, so that the operating system can
+     *  copy them without passing them through the heap. */
+    void transferTo(int k, FileChannel out) throws IOException {
+        long start = idx.getLong(offsetsStart + k * 8) + 1;
+        long length = idx.getLong(lengthsStart + k * 8);
+        FileChannel ch = channel();
+        for (long done = 0; done < length; ) {
+            long n = ch.transferTo(start + done, length - done, out);
+            if (n <= 0) {
+                throw new IOException("truncated pack " + packFile.getName());
+            }
+            done += n;
+        }
+    }
+
+    /** Returns the channel on the pack file, opening it if needed. */
+    private synchronized FileChannel channel() {
+        try {
+            if (pack == null) {
+                pack = FileChannel.open(packFile.toPath(),
+                        StandardOpenOption.READ);
+            }
+            return pack;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads LENGTH bytes at POSITION of the pack file. */
+    private byte[] readRaw(long position, int length) {
+        try {
+            FileChannel ch = channel();
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, position + buf.position()) < 0) {
+                    throw new IllegalArgumentException("truncated pack "
+                            + packFile.getName());
+                }
+            }
+            return buf.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the pack file, if open. */
+    synchronized void close() {
+        try {
+            if (pack != null) {
+                pack.close();
+                pack = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Supplies the type and bytes of objects being packed. */
+    interface Source {
+        /** Returns the TYPE byte of ID. */
+        byte type(String id);
+        /** Writes the bytes to store for ID to OUT and returns their
+         *  number. */
+        long copy(String id, OutputStream out) throws IOException;
+    }
+
+    /** Writes a new pack into DIR holding the objects with the sorted ids
+     *  IDS, whose contents come from SOURCE, and returns it.  Both files
+     *  are written under temporary names and renamed into place, index
+     *  last, so that readers never see a partial pack. */
+    static PackFile write(File dir, List<String> ids, Source source) {
+        dir.mkdirs();
+        String name = "pack-" + Utils.sha1(String.join("\n", ids));
+        File pack = new File(dir, name + ".pack");
+        File idx = new File(dir, name + ".idx");
+        File packTmp = new File(dir, name + ".pack.tmp");
+        File idxTmp = new File(dir, name + ".idx.tmp");
+        int n = ids.size();
+        long[] offsets = new long[n];
+        long[] lengths = new long[n];
+        int[] fanout = new int[256];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            packTmp.toPath()), 1 << 16))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(n);
+                long position = HEADER;
+                for (int i = 0; i < n; i += 1) {
+                    out.writeByte(source.type(ids.get(i)));
+                    offsets[i] = position;
+                    lengths[i] = source.copy(ids.get(i), out);
+                    position += 1 + lengths[i];
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            idxTmp.toPath()), 1 << 16))) {
+                out.writeInt(IDX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(n);
+                for (String id : ids) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int b = 0; b < 256; b += 1) {
+                    total += fanout[b];
+                    out.writeInt(total);
+                }
+                for (String id : ids) {
+                    out.write(Utils.sha1Bytes(id));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (long length : lengths) {
+                    out.writeLong(length);
+                }
+            }
+            Files.move(packTmp.toPath(), pack.toPath(),
+                    REPLACE_EXISTING, ATOMIC_MOVE);
+            Files.move(idxTmp.toPath(), idx.toPath(),
+                    REPLACE_EXISTING, ATOMIC_MOVE);
+            Durability.written(pack);
+            Durability.written(idx);
+        } catch (IOException excp) {
+            packTmp.delete();
+            idxTmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new PackFile(idx);
+    }
+}
@@ -0,0 +1,135 @@
+package gitlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/** Tests of writing PackFiles and looking objects up in them.
+ *  @author Ricardo Mo
+ */
+public class PackFileTest {
+
+    /** Directory the packs are written to. */
+    private File dir;
+    /** Packs opened by a test. */
+    private final List<PackFile> opened = new ArrayList<>();
+
+    @Before
+    public void makeDirectory() throws IOException {
+        dir = Files.createTempDirectory("packs").toFile();
+    }
+
+    @After
+    public void removeDirectory() {
+        for (PackFile pack : opened) {
+            pack.close();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Returns a pack holding the objects CONTENTS, by id, stored whole. */
+    private PackFile pack(HashMap<String, byte[]> contents) {
+        List<String> ids = new ArrayList<>(contents.keySet());
+        Collections.sort(ids);
+        PackFile pack = PackFile.write(dir, ids, new PackFile.Source() {
+            @Override
+            public byte type(String id) {
+                return PackFile.TYPE_FULL;
+            }
+
+            @Override
+            public long copy(String id, OutputStream out) throws IOException {
+                out.write(contents.get(id));
+                return contents.get(id).length;
+            }
+        });
+        opened.add(pack);
+        return pack;
+    }
+
+    /** Returns N objects, by id. */
+    private static HashMap<String, byte[]> objects(int n) {
+        HashMap<String, byte[]> contents = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            byte[] data = ("object " + i + "\n").repeat(i % 7)
+                .getBytes(StandardCharsets.UTF_8);
+            contents.put(Utils.sha1(data), data);
+        }
+        return contents;
+    }
+
+    @Test
+    public void findsEveryObject() throws IOException {
+        HashMap<String, byte[]> contents = objects(1000);
+        PackFile pack = pack(contents);
+        assertEquals(contents.size(), pack.size());
+        String previous = "";
+        for (int k = 0; k < pack.size(); k += 1) {
+            String id = pack.idAt(k);
+            assertTrue("ids sorted", id.compareTo(previous) > 0);
+            previous = id;
+            assertEquals(k, pack.find(id));
+            assertTrue(pack.contains(id));
+            assertEquals(PackFile.TYPE_FULL, pack.typeAt(k));
+            assertArrayEquals(contents.get(id), pack.dataAt(k));
+            try (InputStream in = pack.streamAt(k)) {
+                assertArrayEquals(contents.get(id), in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    public void missesAbsentObjects() {
+        HashMap<String, byte[]> contents = objects(500);
+        PackFile pack = pack(contents);
+        for (int i = 0; i < 500; i += 1) {
+            String id = Utils.sha1("absent " + i);
+            assertFalse(contents.containsKey(id));
+            assertEquals(-1, pack.find(id));
+        }
+        for (int k = 0; k < pack.size(); k += 1) {
+            String id = pack.idAt(k);
+            char last = id.charAt(id.length() - 1);
+            String neighbour = id.substring(0, id.length() - 1)
+                + (last == '0' ? '1' : '0');
+            assertEquals(contents.containsKey(neighbour),
+                         pack.contains(neighbour));
+        }
+        assertFalse(pack.contains("0".repeat(Utils.UID_LENGTH)));
+        assertFalse(pack.contains("f".repeat(Utils.UID_LENGTH)));
+        assertFalse(pack.contains(pack.idAt(0).substring(0, 10)));
+    }
+
+    @Test
+    public void emptyPack() {
+        PackFile pack = pack(new HashMap<>());
+        assertEquals(0, pack.size());
+        assertFalse(pack.contains(Utils.sha1("anything")));
+    }
+
+    @Test
+    public void reopensWrittenPack() {
+        HashMap<String, byte[]> contents = objects(50);
+        PackFile written = pack(contents);
+        PackFile pack = new PackFile(written.getIdxFile());
+        opened.add(pack);
+        for (String id : contents.keySet()) {
+            assertArrayEquals(contents.get(id), pack.dataAt(pack.find(id)));
+        }
+    }
+}
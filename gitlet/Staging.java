@@ -1 +1,333 @@
+package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/** The staging area: the files staged for addition (name to blob id) and
+ *  for removal (name to the id of the committed version).  It is kept in
+ *  .gitlet/staging/journal as a log of changes,
+ *      "GLSJ" VERSION (OP NAME [ID])...
+ *  where OP is one of
+ *      ADD     stage NAME for addition as blob ID,
+ *      UNADD   unstage NAME for addition,
+ *      REMOVE  stage NAME for removal, its committed version being ID,
+ *      UNREMOVE unstage NAME for removal.
+ *  The journal is replayed in one pass the first time the staging area is
+ *  needed.  The changes made by a command are kept in memory and appended
+ *  by flush, which Main.run calls when the command succeeds, so staging a
+ *  file costs one record however much is staged.  When the journal holds
+ *  many more records than there are staged files it is compacted, that is,
+ *  rewritten with one record per staged file.  Unstaging everything, as a
+ *  commit does, deletes it.  A record cut short by a crash is dropped.
+ *
+ *  Older versions stored the two maps as serialized HashMaps in
+ *  Main.addition and Main.removal.  Those are read if present and replaced
+ *  by a journal at the next flush. */
+class Staging {
+
+    /** Magic number and version of the journal. */
+    private static final int MAGIC = 0x474c534a, VERSION = 1;
+    /** Journal operations. */
+    private static final int ADD = 'A', UNADD = 'a', REMOVE = 'R',
+        UNREMOVE = 'r';
+    /** Number of records beyond twice the number of staged files at which
+     *  the journal is compacted. */
+    private static final int COMPACT_SLACK = 1024;
+
+    /** The staged additions and removals, or null if not loaded. */
+    private static HashMap<String, String> additions, removals;
+    /** Records not yet appended to the journal. */
+    private static ByteArrayOutputStream pending;
+    /** Number of records in PENDING and in the journal. */
+    private static int pendingRecords, records;
+    /** Length of the well-formed part of the journal. */
+    private static long validLength;
+    /** True iff the journal must be rewritten rather than appended to. */
+    private static boolean rewrite;
+    /** Size, modification time and file key of the journal when it was
+     *  last read or written, or null if there was none. */
+    private static String stamp;
+
+    /** Returns the journal file. */
+    private static File file() {
+        return Utils.join(Main.stagingArea, "journal");
+    }
+
+    /** Returns the files staged for addition. */
+    static Map<String, String> additions() {
+        load();
+        return Collections.unmodifiableMap(additions);
+    }
+
+    /** Returns the files staged for removal. */
+    static Map<String, String> removals() {
+        load();
+        return Collections.unmodifiableMap(removals);
+    }
+
+    /** Stages NAME for addition as blob ID. */
+    static void add(String name, String id) {
+        load();
+        if (!id.equals(additions.put(name, id))) {
+            log(ADD, name, id);
+        }
+    }
+
+    /** Unstages NAME for addition. */
+    static void unadd(String name) {
+        load();
+        if (additions.remove(name) != null) {
+            log(UNADD, name, null);
+        }
+    }
+
+    /** Stages NAME, whose committed version is blob ID, for removal. */
+    static void remove(String name, String id) {
+        load();
+        if (!id.equals(removals.put(name, id))) {
+            log(REMOVE, name, id);
+        }
+    }
+
+    /** Unstages NAME for removal. */
+    static void unremove(String name) {
+        load();
+        if (removals.remove(name) != null) {
+            log(UNREMOVE, name, null);
+        }
+    }
+
+    /** Returns true iff nothing is staged. */
+    static boolean isEmpty() {
+        load();
+        return additions.isEmpty() && removals.isEmpty();
+    }
+
+    /** Unstages everything. */
+    static void clear() {
+        load();
+        additions.clear();
+        removals.clear();
+        pending.reset();
+        pendingRecords = 0;
+        rewrite = true;
+    }
+
+    /** Writes the changes made since the journal was read or last
+     *  flushed. */
+    static void flush() {
+        if (additions == null || (pendingRecords == 0 && !rewrite)
+            || !Main.GITLET.isDirectory()) {
+            return;
+        }
+        Main.stagingArea.mkdir();
+        if (rewrite || records + pendingRecords
+            > 2 * (additions.size() + removals.size()) + COMPACT_SLACK) {
+            compact();
+        } else {
+            append();
+        }
+        Main.addition.delete();
+        Main.removal.delete();
+        pending.reset();
+        pendingRecords = 0;
+        rewrite = false;
+        stamp = stamp();
+    }
+
+    /** Discards the loaded staging area if another process has changed
+     *  the journal since it was read or written, so that it is read
+     *  again.  Main.run calls this at the start of each command, holding
+     *  the repository lock. */
+    static void refresh() {
+        if (additions != null && (!Objects.equals(stamp, stamp())
+                                  || Main.addition.exists()
+                                  || Main.removal.exists())) {
+            forget();
+        }
+    }
+
+    /** Returns the size, modification time and file key of the journal,
+     *  or null if it does not exist. */
+    private static String stamp() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                    file().toPath(), BasicFileAttributes.class);
+            return attrs.size() + " " + attrs.lastModifiedTime().toMillis()
+                + " " + attrs.fileKey();
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Discards the changes not yet flushed, so that the journal is read
+     *  again when next needed. */
+    static void forget() {
+        additions = removals = null;
+        pending = null;
+    }
+
+    /** Adds the record OP NAME [ID] to PENDING. */
+    private static void log(int op, String name, String id) {
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            writeRecord(out, op, name, id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        pendingRecords += 1;
+    }
+
+    /** Writes the record OP NAME [ID] to OUT. */
+    private static void writeRecord(DataOutputStream out, int op, String name,
+                                    String id) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(name);
+        if (id != null) {
+            out.write(Utils.sha1Bytes(id), 0, Utils.UID_BYTES);
+        }
+    }
+
+    /** Appends PENDING to the journal, first dropping any partial record
+     *  at its end. */
+    private static void append() {
+        try (RandomAccessFile journal = new RandomAccessFile(file(), "rw")) {
+            if (validLength == 0) {
+                journal.setLength(0);
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+                validLength = journal.getFilePointer();
+            }
+            journal.setLength(validLength);
+            journal.seek(validLength);
+            journal.write(pending.toByteArray());
+            validLength = journal.getFilePointer();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Durability.written(file());
+        records += pendingRecords;
+    }
+
+    /** Replaces the journal by one holding a record per staged file, or
+     *  deletes it if nothing is staged. */
+    private static void compact() {
+        records = 0;
+        validLength = 0;
+        if (additions.isEmpty() && removals.isEmpty()) {
+            file().delete();
+            return;
+        }
+        File tmp = Durability.tempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (Map.Entry<String, String> e : additions.entrySet()) {
+                    writeRecord(out, ADD, e.getKey(), e.getValue());
+                }
+                for (Map.Entry<String, String> e : removals.entrySet()) {
+                    writeRecord(out, REMOVE, e.getKey(), e.getValue());
+                }
+                validLength = out.size();
+            }
+            Durability.install(tmp, file());
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        records = additions.size() + removals.size();
+    }
+
+    /** Reads the staging area if it is not loaded. */
+    private static void load() {
+        if (additions != null) {
+            return;
+        }
+        additions = new HashMap<>();
+        removals = new HashMap<>();
+        pending = new ByteArrayOutputStream();
+        pendingRecords = records = 0;
+        validLength = 0;
+        rewrite = false;
+        stamp = stamp();
+        if (file().isFile()) {
+            replay();
+        }
+        if (Main.addition.exists() || Main.removal.exists()) {
+            additions.putAll(loadMap(Main.addition));
+            removals.putAll(loadMap(Main.removal));
+            rewrite = true;
+        }
+    }
+
+    /** Applies the records of the journal to the staged maps. */
+    private static void replay() {
+        byte[] data = Utils.readContents(file());
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        try (DataInputStream in = new DataInputStream(bytes)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Unknown staging journal format.");
+            }
+            validLength = data.length - bytes.available();
+            byte[] id = new byte[Utils.UID_BYTES];
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                String name = in.readUTF();
+                switch (op) {
+                case ADD:
+                    in.readFully(id);
+                    additions.put(name, Utils.sha1Hex(id, 0));
+                    break;
+                case REMOVE:
+                    in.readFully(id);
+                    removals.put(name, Utils.sha1Hex(id, 0));
+                    break;
+                case UNADD:
+                    additions.remove(name);
+                    break;
+                case UNREMOVE:
+                    removals.remove(name);
+                    break;
+                default:
+                    throw Utils.error("Damaged staging journal.");
+                }
+                validLength = data.length - bytes.available();
+                records += 1;
+            }
+        } catch (EOFException excp) {
+            /* A partial record at the end, from an interrupted append,
+             * which the next append overwrites. */
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the map stored in the old-style FILE, or an empty map if
+     *  there is none. */
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, String> loadMap(File file) {
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        return Utils.readObject(file, HashMap.class);
+    }
+}
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** A cache of the blob ids of working files, so that a file is hashed
+ *  again only when its stat data changes.  For each file hashed, or
+ *  written by a checkout, it records the file's size, modification time
+ *  and file key (device and inode on Unix) together with the id.  It is
+ *  stored in .gitlet/info/stat-cache as
+ *      "GLSC" VERSION COUNT (NAME SIZE MTIME FILEKEY ID)...
+ *
+ *  A file changed in the same clock tick in which the cache was last
+ *  written can keep its size and modification time, so entries whose
+ *  modification time is not older than the cache file itself are not
+ *  trusted ("racily clean") and the file is hashed again.  Once the cache
+ *  has been written later than the file, the entry becomes usable. */
+class StatCache {
+
+    /** Magic number and version of the cache file. */
+    private static final int MAGIC = 0x474c5343, VERSION = 1;
+
+    /** What is recorded about one working file. */
+    private static class Entry {
+        /** Size, modification time in nanoseconds and file key. */
+        final long size, mtime;
+        final String fileKey;
+        /** The blob id of the file's contents. */
+        final String id;
+
+        Entry(long size, long mtime, String fileKey, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.id = id;
+        }
+    }
+
+    /** The entries by file name, or null if not loaded. */
+    private static HashMap<String, Entry> entries;
+    /** Modification time of the cache file when it was read, in
+     *  nanoseconds; entries at least as recent are racy. */
+    private static long savedAt;
+    /** True iff ENTRIES was changed since it was loaded. */
+    private static boolean changed;
+
+    /** Returns the cache file. */
+    private static File file() {
+        return Utils.join(Main.infoArea, "stat-cache");
+    }
+
+    /** Returns the blob id of working file NAME if its stat data shows
+     *  that it is unchanged since it was recorded, and otherwise null. */
+    static synchronized String cached(String name) {
+        return cached(name, stat(Utils.join(Main.CWD, name), null));
+    }
+
+    /** Returns the recorded blob id of working file NAME if STAT, its
+     *  current stat data, matches the entry, and otherwise null. */
+    private static String cached(String name, Entry stat) {
+        Entry known = entries().get(name);
+        if (stat != null && known != null && matches(known, stat)
+            && known.mtime < savedAt) {
+            return known.id;
+        }
+        return null;
+    }
+
+    /** Returns the blob id of working file NAME, from the cache if its
+     *  stat data is unchanged, and otherwise computed by HASHER from the
+     *  file and recorded. */
+    static String hash(String name, Function<File, String> hasher) {
+        File file = Utils.join(Main.CWD, name);
+        Entry stat = stat(file, null);
+        synchronized (StatCache.class) {
+            String cached = cached(name, stat);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String id = hasher.apply(file); /* Other files can be hashed meanwhile. */
+        if (stat != null) {
+            synchronized (StatCache.class) {
+                entries().put(name, new Entry(stat.size, stat.mtime,
+                        stat.fileKey, id));
+                changed = true;
+            }
+        }
+        return id;
+    }
+
+    /** Records that working file NAME was just written with the contents
+     *  of blob ID. */
+    static synchronized void record(String name, String id) {
+        Entry stat = stat(Utils.join(Main.CWD, name), id);
+        if (stat != null) {
+            entries().put(name, stat);
+            changed = true;
+        }
+    }
+
+    /** Returns the blob ids recorded for working files. */
+    static synchronized Set<String> ids() {
+        HashSet<String> result = new HashSet<>();
+        for (Entry entry : entries().values()) {
+            result.add(entry.id);
+        }
+        return result;
+    }
+
+    /** Forgets working file NAME, for instance because it was deleted. */
+    static synchronized void forget(String name) {
+        if (entries().remove(name) != null) {
+            changed = true;
+        }
+    }
+
+    /** Discards the loaded entries if another process has written the
+     *  cache since it was read or written, so that it is read again.
+     *  Main.run calls this at the start of each command. */
+    static synchronized void refresh() {
+        if (entries == null || changed) {
+            return;
+        }
+        long modified = Long.MIN_VALUE;
+        try {
+            modified = Files.getLastModifiedTime(file().toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            /* No cache file. */
+        }
+        if (modified != savedAt) {
+            entries = null;
+        }
+    }
+
+    /** Returns the stat data of FILE with id ID, or null if it cannot be
+     *  read. */
+    private static Entry stat(File file, String id) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    key == null ? "" : key.toString(), id);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns true iff A and B have the same stat data. */
+    private static boolean matches(Entry a, Entry b) {
+        return a.size == b.size && a.mtime == b.mtime
+            && a.fileKey.equals(b.fileKey);
+    }
+
+    /** Returns the entries, reading them if needed. */
+    private static HashMap<String, Entry> entries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            changed = false;
+            savedAt = Long.MIN_VALUE;
+            if (file().isFile()) {
+                read();
+            }
+        }
+        return entries;
+    }
+
+    /** Reads the cache file into ENTRIES.  A damaged cache is ignored. */
+    private static void read() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file())))) {
+            savedAt = Files.getLastModifiedTime(file().toPath())
+                .to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            byte[] id = new byte[Utils.UID_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                long size = in.readLong(), mtime = in.readLong();
+                String fileKey = in.readUTF();
+                in.readFully(id);
+                entries.put(name, new Entry(size, mtime, fileKey,
+                        Utils.sha1Hex(id, 0)));
+            }
+        } catch (IOException excp) {
+            entries.clear();
+        }
+    }
+
+    /** Writes the cache back if it changed. */
+    static synchronized void flush() {
+        if (!changed || entries == null || !Main.GITLET.isDirectory()) {
+            return;
+        }
+        Main.infoArea.mkdir();
+        File tmp = Durability.tempFile();
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.mtime);
+                    out.writeUTF(entry.fileKey);
+                    out.write(Utils.sha1Bytes(entry.id));
+                }
+            }
+            Durability.install(tmp, file());
+            savedAt = Files.getLastModifiedTime(file().toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException | IllegalArgumentException excp) {
+            tmp.delete();
+            return;
+        }
+        changed = false;
+    }
+}
@@ -0,0 +1,374 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Tree objects: the file table of a commit, split into pieces named by
+ *  the SHA-1 of their contents so that commits share the pieces they have
+ *  in common.  Gitlet tracks a flat set of file names, so instead of
+ *  following directories a tree is split by the hex digits of the SHA-1
+ *  of each file name.  A node at depth D is either
+ *      a leaf, holding all its entries sorted by name, if it has at most
+ *          MAX_LEAF of them, or
+ *      an inner node with up to 16 children, the Kth holding the entries
+ *          whose name hashes to K in hex digit D.
+ *  The shape depends only on the set of entries, so equal tables have
+ *  equal ids, a commit that changes a few files writes only the nodes on
+ *  the paths to them, and diff skips every subtree whose id is unchanged.
+ *
+ *  Trees are stored in Main.treesArea as
+ *      "GLT" VERSION 'L' COUNT (NAME BLOB_ID)...        (leaf)
+ *      "GLT" VERSION 'N' COUNT MASK CHILD_ID...         (inner node)
+ *  where COUNT is the number of entries in the subtree, as a varint, NAME
+ *  a varint-length UTF-8 string, MASK two bytes with bit K set iff child K
+ *  is present, and the ids binary SHA-1s. */
+class Tree {
+
+    /** Magic bytes and version of the format. */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+    private static final int VERSION = 1;
+    /** The most entries a leaf holds. */
+    static final int MAX_LEAF = 256;
+    /** Number of children of an inner node. */
+    private static final int FANOUT = 16;
+    /** Number of decoded nodes kept in memory. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** A decoded node: ENTRIES if it is a leaf, and otherwise CHILDREN,
+     *  with null for absent children.  COUNT is the number of entries
+     *  in the subtree. */
+    private static class Node {
+        final TreeMap<String, String> entries;
+        final String[] children;
+        final int count;
+
+        Node(TreeMap<String, String> entries) {
+            this.entries = entries;
+            this.children = null;
+            this.count = entries.size();
+        }
+
+        Node(String[] children, int count) {
+            this.entries = null;
+            this.children = children;
+            this.count = count;
+        }
+
+        boolean isLeaf() {
+            return entries != null;
+        }
+    }
+
+    /** The empty tree. */
+    private static final Node EMPTY = new Node(new TreeMap<>());
+
+    /** Nodes read recently, least recently used first. */
+    private static final LinkedHashMap<String, Node> cache =
+        new LinkedHashMap<>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Node> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** Returns the file holding tree ID. */
+    static File file(String id) {
+        return Utils.join(Main.treesArea, id);
+    }
+
+    /** Stores the tree holding FILES (name to blob id) and returns the
+     *  id of its root. */
+    static String write(Map<String, String> files) {
+        return store(build(new TreeMap<>(files), 0));
+    }
+
+    /** Returns the id of the tree ROOT (null for the empty tree) with the
+     *  CHANGES applied, each mapping a name to its new blob id or to null
+     *  to remove it.  Only the nodes on the paths to the changed names are
+     *  read and written. */
+    static String update(String root, Map<String, String> changes) {
+        if (changes.isEmpty() && root != null) {
+            return root;
+        }
+        return store(update(load(root), changes, 0));
+    }
+
+    /** Returns the files (name to blob id) of the tree ROOT. */
+    static HashMap<String, String> flatten(String root) {
+        Node node = load(root);
+        HashMap<String, String> files = new HashMap<>(node.count * 4 / 3 + 1);
+        collect(node, files);
+        return files;
+    }
+
+    /** Returns the names whose blob differs between the trees FROM and TO
+     *  (null for the empty tree), each mapped to {blob in FROM, blob in
+     *  TO}, with null for a side that lacks it.  Subtrees with equal ids
+     *  are not read. */
+    static HashMap<String, String[]> diff(String from, String to) {
+        HashMap<String, String[]> changes = new HashMap<>();
+        diff(from, to, changes);
+        return changes;
+    }
+
+    /** Adds the differences between trees FROM and TO to CHANGES. */
+    private static void diff(String from, String to,
+                             HashMap<String, String[]> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        Node a = load(from), b = load(to);
+        if (!a.isLeaf() && !b.isLeaf()) {
+            for (int k = 0; k < FANOUT; k += 1) {
+                diff(a.children[k], b.children[k], changes);
+            }
+            return;
+        }
+        HashMap<String, String> filesA = new HashMap<>(), filesB = new HashMap<>();
+        collect(a, filesA);
+        collect(b, filesB);
+        for (Map.Entry<String, String> e : filesB.entrySet()) {
+            String old = filesA.get(e.getKey());
+            if (!e.getValue().equals(old)) {
+                changes.put(e.getKey(), new String[] {old, e.getValue()});
+            }
+        }
+        for (Map.Entry<String, String> e : filesA.entrySet()) {
+            if (!filesB.containsKey(e.getKey())) {
+                changes.put(e.getKey(), new String[] {e.getValue(), null});
+            }
+        }
+    }
+
+    /** Adds the entries under NODE to FILES. */
+    private static void collect(Node node, Map<String, String> files) {
+        if (node.isLeaf()) {
+            files.putAll(node.entries);
+        } else {
+            for (String child : node.children) {
+                if (child != null) {
+                    collect(load(child), files);
+                }
+            }
+        }
+    }
+
+    /** Returns hex digit DEPTH of the SHA-1 of NAME. */
+    private static int digit(String name, int depth) {
+        return Character.digit(Utils.sha1(name).charAt(depth), 16);
+    }
+
+    /** Returns the node at depth DEPTH holding FILES, storing its
+     *  children. */
+    private static Node build(TreeMap<String, String> files, int depth) {
+        if (files.size() <= MAX_LEAF || depth == Utils.UID_LENGTH) {
+            return new Node(files);
+        }
+        List<TreeMap<String, String>> parts =
+            new ArrayList<>(Collections.nCopies(FANOUT, null));
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            int k = digit(e.getKey(), depth);
+            if (parts.get(k) == null) {
+                parts.set(k, new TreeMap<>());
+            }
+            parts.get(k).put(e.getKey(), e.getValue());
+        }
+        String[] children = new String[FANOUT];
+        for (int k = 0; k < FANOUT; k += 1) {
+            if (parts.get(k) != null) {
+                children[k] = store(build(parts.get(k), depth + 1));
+            }
+        }
+        return new Node(children, files.size());
+    }
+
+    /** Returns NODE, at depth DEPTH, with CHANGES applied, storing any new
+     *  descendants. */
+    private static Node update(Node node, Map<String, String> changes,
+                               int depth) {
+        if (node.isLeaf()) {
+            TreeMap<String, String> files = new TreeMap<>(node.entries);
+            apply(files, changes);
+            return build(files, depth);
+        }
+        List<HashMap<String, String>> parts =
+            new ArrayList<>(Collections.nCopies(FANOUT, null));
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            int k = digit(e.getKey(), depth);
+            if (parts.get(k) == null) {
+                parts.set(k, new HashMap<>());
+            }
+            parts.get(k).put(e.getKey(), e.getValue());
+        }
+        String[] children = node.children.clone();
+        Node[] updated = new Node[FANOUT];
+        int count = 0;
+        for (int k = 0; k < FANOUT; k += 1) {
+            if (parts.get(k) != null) {
+                updated[k] = update(load(children[k]), parts.get(k),
+                                    depth + 1);
+                count += updated[k].count;
+            } else if (children[k] != null) {
+                count += load(children[k]).count;
+            }
+        }
+        if (count <= MAX_LEAF) {
+            TreeMap<String, String> files = new TreeMap<>();
+            for (int k = 0; k < FANOUT; k += 1) {
+                Node child = updated[k] != null ? updated[k] : load(children[k]);
+                collect(child, files);
+            }
+            return new Node(files);
+        }
+        for (int k = 0; k < FANOUT; k += 1) {
+            if (updated[k] != null) {
+                children[k] = updated[k].count == 0 ? null : store(updated[k]);
+            }
+        }
+        return new Node(children, count);
+    }
+
+    /** Applies CHANGES to FILES. */
+    private static void apply(Map<String, String> files,
+                              Map<String, String> changes) {
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                files.remove(e.getKey());
+            } else {
+                files.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Stores NODE unless it is already stored, and returns its id. */
+    private static String store(Node node) {
+        byte[] data = encode(node);
+        String id = Utils.sha1(data);
+        File file = file(id);
+        if (!file.exists()) {
+            Main.treesArea.mkdir();
+            Durability.write(file, data);
+        }
+        synchronized (cache) {
+            cache.put(id, node);
+        }
+        return id;
+    }
+
+    /** Returns the tree ID, or the empty tree if ID is null. */
+    private static Node load(String id) {
+        if (id == null) {
+            return EMPTY;
+        }
+        synchronized (cache) {
+            Node node = cache.get(id);
+            if (node != null) {
+                return node;
+            }
+        }
+        Node node = decode(id, Utils.readContents(file(id)));
+        synchronized (cache) {
+            cache.put(id, node);
+        }
+        return node;
+    }
+
+    /** Returns the encoding of NODE. */
+    private static byte[] encode(Node node) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        out.write(node.isLeaf() ? 'L' : 'N');
+        Utils.writeVarint(out, node.count);
+        if (node.isLeaf()) {
+            for (Map.Entry<String, String> e : node.entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                Utils.writeVarint(out, name.length);
+                out.write(name, 0, name.length);
+                out.write(Utils.sha1Bytes(e.getValue()), 0, Utils.UID_BYTES);
+            }
+        } else {
+            int mask = 0;
+            for (int k = 0; k < FANOUT; k += 1) {
+                if (node.children[k] != null) {
+                    mask |= 1 << k;
+                }
+            }
+            out.write(mask >>> 8);
+            out.write(mask);
+            for (String child : node.children) {
+                if (child != null) {
+                    out.write(Utils.sha1Bytes(child), 0, Utils.UID_BYTES);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the node with id ID encoded in DATA. */
+    private static Node decode(String id, byte[] data) {
+        if (data.length < MAGIC.length + 2 || data[0] != MAGIC[0]
+            || data[1] != MAGIC[1] || data[2] != MAGIC[2]
+            || data[MAGIC.length] != VERSION) {
+            throw new IllegalArgumentException("corrupt tree " + id);
+        }
+        byte kind = data[MAGIC.length + 1];
+        int[] pos = {MAGIC.length + 2};
+        int count = (int) Utils.readVarint(data, pos);
+        if (kind == 'L') {
+            TreeMap<String, String> entries = new TreeMap<>();
+            for (int i = 0; i < count; i += 1) {
+                int length = (int) Utils.readVarint(data, pos);
+                String name = new String(data, pos[0], length,
+                        StandardCharsets.UTF_8);
+                pos[0] += length;
+                entries.put(name, Utils.sha1Hex(data, pos[0]));
+                pos[0] += Utils.UID_BYTES;
+            }
+            return new Node(entries);
+        } else if (kind == 'N') {
+            int mask = (data[pos[0]] & 0xff) << 8 | (data[pos[0] + 1] & 0xff);
+            pos[0] += 2;
+            String[] children = new String[FANOUT];
+            for (int k = 0; k < FANOUT; k += 1) {
+                if ((mask & (1 << k)) != 0) {
+                    children[k] = Utils.sha1Hex(data, pos[0]);
+                    pos[0] += Utils.UID_BYTES;
+                }
+            }
+            return new Node(children, count);
+        }
+        throw new IllegalArgumentException("corrupt tree " + id);
+    }
+
+    /** Returns the ids of the children of tree ID, none for a leaf. */
+    static List<String> children(String id) {
+        Node node = load(id);
+        List<String> result = new ArrayList<>();
+        if (!node.isLeaf()) {
+            for (String child : node.children) {
+                if (child != null) {
+                    result.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the blob ids of the entries of tree ID itself, none for an
+     *  inner node. */
+    static Collection<String> blobs(String id) {
+        Node node = load(id);
+        return node.isLeaf() ? node.entries.values()
+            : new ArrayList<>();
+    }
+}
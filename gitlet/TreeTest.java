@@ -0,0 +1,167 @@
+package gitlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+/** Tests of Tree objects, chiefly Tree.diff.  Trees are stored in
+ *  Main.treesArea; if the current directory holds no repository, the
+ *  one the tests make is removed again afterwards.
+ *  @author Ricardo Mo
+ */
+public class TreeTest {
+
+    /** True iff the test created Main.GITLET. */
+    private boolean created;
+
+    @Before
+    public void makeTreesArea() {
+        created = !Main.GITLET.exists();
+        Main.treesArea.mkdirs();
+    }
+
+    @After
+    public void removeTreesArea() {
+        if (created) {
+            delete(Main.GITLET);
+        }
+    }
+
+    /** Deletes FILE and, if it is a directory, everything in it. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Returns N files named by number, each with a blob id made from its
+     *  name and VERSION. */
+    private static HashMap<String, String> files(int n, String version) {
+        HashMap<String, String> files = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            files.put("file" + i, Utils.sha1("file" + i, version));
+        }
+        return files;
+    }
+
+    /** Returns the differences between the tables FROM and TO, computed
+     *  entry by entry, as Tree.diff returns them. */
+    private static HashMap<String, String[]> expectedDiff(
+            Map<String, String> from, Map<String, String> to) {
+        HashMap<String, String[]> changes = new HashMap<>();
+        HashSet<String> names = new HashSet<>(from.keySet());
+        names.addAll(to.keySet());
+        for (String name : names) {
+            String a = from.get(name), b = to.get(name);
+            if (a == null ? b != null : !a.equals(b)) {
+                changes.put(name, new String[] {a, b});
+            }
+        }
+        return changes;
+    }
+
+    /** Asserts that the changes EXPECTED and ACTUAL are the same. */
+    private static void assertSameChanges(HashMap<String, String[]> expected,
+                                          HashMap<String, String[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet()) {
+            assertArrayEquals(name, expected.get(name), actual.get(name));
+        }
+    }
+
+    /** Asserts that Tree.diff between the trees of FROM and TO matches the
+     *  entry by entry differences, in both directions. */
+    private static void assertDiff(Map<String, String> from,
+                                   Map<String, String> to) {
+        String a = Tree.write(from), b = Tree.write(to);
+        assertSameChanges(expectedDiff(from, to), Tree.diff(a, b));
+        assertSameChanges(expectedDiff(to, from), Tree.diff(b, a));
+    }
+
+    @Test
+    public void equalTreesHaveNoDiff() {
+        HashMap<String, String> files = files(1000, "1");
+        String root = Tree.write(files);
+        assertEquals(root, Tree.write(new HashMap<>(files)));
+        assertTrue(Tree.diff(root, root).isEmpty());
+        assertTrue(Tree.diff(null, null).isEmpty());
+    }
+
+    @Test
+    public void diffAgainstEmptyTree() {
+        HashMap<String, String> files = files(300, "1");
+        String root = Tree.write(files);
+        assertSameChanges(expectedDiff(Map.of(), files),
+                          Tree.diff(null, root));
+        assertSameChanges(expectedDiff(files, Map.of()),
+                          Tree.diff(root, null));
+    }
+
+    @Test
+    public void diffOfSmallTrees() {
+        HashMap<String, String> from = files(5, "1");
+        HashMap<String, String> to = new HashMap<>(from);
+        to.put("file1", Utils.sha1("changed"));
+        to.remove("file2");
+        to.put("new", Utils.sha1("new"));
+        assertDiff(from, to);
+    }
+
+    @Test
+    public void diffOfLargeTrees() {
+        Random random = new Random(7);
+        HashMap<String, String> from = files(3 * Tree.MAX_LEAF * 16, "1");
+        HashMap<String, String> to = new HashMap<>(from);
+        for (int i = 0; i < 100; i += 1) {
+            String name = "file" + random.nextInt(from.size());
+            switch (random.nextInt(3)) {
+            case 0:
+                to.put(name, Utils.sha1(name, "2"));
+                break;
+            case 1:
+                to.remove(name);
+                break;
+            default:
+                to.put("added" + i, Utils.sha1("added" + i));
+                break;
+            }
+        }
+        assertDiff(from, to);
+        assertDiff(from, files(Tree.MAX_LEAF, "2"));
+    }
+
+    @Test
+    public void updateMatchesWrite() {
+        HashMap<String, String> from = files(2000, "1");
+        String root = Tree.write(from);
+        HashMap<String, String> changes = new HashMap<>();
+        for (int i = 0; i < 1900; i += 3) {
+            changes.put("file" + i, null);
+        }
+        changes.put("file1", Utils.sha1("changed"));
+        changes.put("extra", Utils.sha1("extra"));
+        HashMap<String, String> to = new HashMap<>(from);
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                to.remove(e.getKey());
+            } else {
+                to.put(e.getKey(), e.getValue());
+            }
+        }
+        String updated = Tree.update(root, changes);
+        assertEquals(Tree.write(to), updated);
+        assertEquals(to, Tree.flatten(updated));
+        assertSameChanges(expectedDiff(from, to), Tree.diff(root, updated));
+    }
+}